@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class AIR extends AbstractInstruction {
@@ -15,7 +15,7 @@ public class AIR extends AbstractInstruction {
 // Operation: R[r] = R[r] + immed
 // PC increments by 1 after execution
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         immed = StringUtil.binaryToDecimal(instruction.substring(11, 16));
@@ -25,6 +25,7 @@ public class AIR extends AbstractInstruction {
         }
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,8 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class AMR extends AbstractInstruction {
@@ -18,7 +18,7 @@ public class AMR extends AbstractInstruction {
 // Operation: R[r] = R[r] + Memory[EA]
 // PC increments by 1 after execution
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ix = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -26,11 +26,15 @@ public class AMR extends AbstractInstruction {
         address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+        if (effectiveAddress == EffectiveAddress.FAULT) {
+            return Const.STATUS_FAULT;
+        }
 
         int value = registers.getRnByNum(r) + mcu.fetchFromCache(effectiveAddress);
         registers.setRnByNum(r, value);
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class AND extends AbstractInstruction {
@@ -11,7 +11,7 @@ public class AND extends AbstractInstruction {
     int rx;
 
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         rx = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -20,6 +20,7 @@ public class AND extends AbstractInstruction {
         registers.setRnByNum(r, value);
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
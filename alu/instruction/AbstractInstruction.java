@@ -2,7 +2,6 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
 
 /**
  * Base class for all instruction implementations in the system.
@@ -14,13 +13,15 @@ public abstract class AbstractInstruction {
      * Executes the instruction with the given parameters.
      * Implementers should define the specific behavior of the instruction,
      * including any changes to registers, memory, and potential faults.
+     * A machine fault is reported by putting its code in MFR and returning
+     * Const.STATUS_FAULT; the CPU then vectors to the fault handler.
      *
      * @param instruction The binary string representation of the instruction.
      * @param registers The CPU registers available for the instruction.
      * @param mcu The memory control unit, for accessing memory.
-     * @throws MachineFaultException If an unrecoverable error occurs during execution.
+     * @return One of the Const.STATUS_* codes.
      */
-    public abstract void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException;
+    public abstract int execute(String instruction, Registers registers, MCU mcu);
 
     /**
      * Returns a descriptive message about the instruction's execution.
@@ -0,0 +1,30 @@
+package alu.instruction;
+
+import cpu.Registers;
+import memory.MCU;
+import util.Const;
+import util.StringUtil;
+
+public class CHK extends AbstractInstruction {
+
+    int r;
+    int devid;
+    // CHK: Check Device Status to Register
+// Operation: R[r] = status of device devid (see device.Device STATUS_ bits,
+//            0 if no device is attached)
+    @Override
+    public int execute(String instruction, Registers registers, MCU mcu) {
+
+        r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
+        devid = StringUtil.binaryToDecimal(instruction.substring(11, 16));
+
+        registers.setRnByNum(r, mcu.deviceStatus(devid));
+        registers.increasePCByOne();
+        return Const.STATUS_OK;
+    }
+
+    @Override
+    public String getExecuteMessage() {
+        return "CHK executed";
+    }
+}
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class DVD extends AbstractInstruction {
@@ -15,13 +15,15 @@ public class DVD extends AbstractInstruction {
 // Operation: R[rx] = quotient, R[rx+1] = remainder
 // Sets CC bit 2 (DIVZERO) if denominator is 0
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         rx = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ry = StringUtil.binaryToDecimal(instruction.substring(8, 10));
 
         if (!((rx == 0 || rx == 2) && (ry == 0 || ry == 2))) {
-            throw new RuntimeException("DVD requires rx and ry to be 0 or 2");
+            // DVD requires rx and ry to be 0 or 2
+            registers.setMFR(Const.FaultCode.ILL_OPRC.getValue());
+            return Const.STATUS_FAULT;
         }
 
         int numerator = registers.getRnByNum(rx);
@@ -30,7 +32,7 @@ public class DVD extends AbstractInstruction {
         if (denominator == 0) {
              registers.setCCElementByBit(2, true);  // set DIVZERO flag
              registers.increasePCByOne();
-            return;
+            return Const.STATUS_OK;
         }
 
         int quotient = numerator / denominator;
@@ -40,6 +42,7 @@ public class DVD extends AbstractInstruction {
         registers.setRnByNum(rx + 1, remainder);
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
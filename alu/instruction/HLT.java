@@ -2,12 +2,14 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 
 public class HLT extends AbstractInstruction {
 
-    public void execute(String instruction, Registers registers, MCU mcu) {
+    public int execute(String instruction, Registers registers, MCU mcu) {
     System.out.println("Program halted.");
     registers.increasePCByOne();  // move PC forward so run loop stops
+    return Const.STATUS_HALT;
 }
 
     @Override
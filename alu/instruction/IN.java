@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class IN extends AbstractInstruction {
@@ -11,26 +11,25 @@ public class IN extends AbstractInstruction {
     int devid;
 
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         devid = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
-        String buffer = mcu.getKeyboardBuffer();
+        int input = mcu.readInput(devid);
 
-        if (buffer == null || buffer.isEmpty()) {
+        if (input < 0) {
             // No input available: do not modify PC here. Leave PC unchanged
-            // so the CPU will re-execute the IN instruction (stall) until
-            // input arrives. Previous implementation adjusted PC to
-            // compensate for framework-level increments; instructions
-            // now manage PC themselves, so decrementing causes a toggle.
-            return;
+            // so the CPU will re-execute the IN instruction (stall) once
+            // input arrives; the run loop waits for it in MCU.awaitInput.
+            // Instructions manage PC themselves, so decrementing here
+            // would cause a toggle.
+            return Const.STATUS_STALL;
         }
 
-        int input = (int) buffer.charAt(0);
-        mcu.setKeyboardBuffer(buffer.substring(1));
         registers.setRnByNum(r, input);
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,8 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class JCC extends AbstractInstruction {
@@ -18,7 +18,7 @@ public class JCC extends AbstractInstruction {
 // Operation: if CC[cc] == 1, PC = EA
 //            else PC = PC + 1 (no jump)
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         cc = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ix = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -26,6 +26,9 @@ public class JCC extends AbstractInstruction {
         address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         int EA = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+        if (EA == EffectiveAddress.FAULT) {
+            return Const.STATUS_FAULT;
+        }
 
         // Simple simulation: use R0 == 0 as condition
        if (registers.getCCElementByBit(cc)) {
@@ -33,6 +36,7 @@ public class JCC extends AbstractInstruction {
       } else {
         registers.increasePCByOne();
        }
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,8 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class JGE extends AbstractInstruction {
@@ -14,7 +14,7 @@ public class JGE extends AbstractInstruction {
     int address;
 
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ix = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -22,12 +22,16 @@ public class JGE extends AbstractInstruction {
         address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+        if (effectiveAddress == EffectiveAddress.FAULT) {
+            return Const.STATUS_FAULT;
+        }
 
         if (registers.getRnByNum(r) >= 0) {
             registers.setPC(effectiveAddress);
         } else {
             registers.increasePCByOne();
         }
+        return Const.STATUS_OK;
     }
 
     @Override
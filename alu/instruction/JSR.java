@@ -2,8 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class JSR extends AbstractInstruction {
@@ -17,16 +17,20 @@ public class JSR extends AbstractInstruction {
 //            PC = EA (jump to subroutine)
 // Return is done by RFS instruction
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         ix = StringUtil.binaryToDecimal(instruction.substring(8, 10));
         i = StringUtil.binaryToDecimal(instruction.substring(10, 11));
         address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+        if (effectiveAddress == EffectiveAddress.FAULT) {
+            return Const.STATUS_FAULT;
+        }
 
         registers.setR3(registers.getPC() + 1);
         registers.setPC(effectiveAddress);
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,8 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class JZ extends AbstractInstruction {
@@ -18,7 +18,7 @@ public class JZ extends AbstractInstruction {
 // Operation: if R[r] == 0, PC = EA
 //            else PC = PC + 1 (no jump)
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ix = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -26,12 +26,16 @@ public class JZ extends AbstractInstruction {
         address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+        if (effectiveAddress == EffectiveAddress.FAULT) {
+            return Const.STATUS_FAULT;
+        }
 
         if (registers.getRnByNum(r) == 0) {
             registers.setPC(effectiveAddress);
         } else {
             registers.increasePCByOne();
         }
+        return Const.STATUS_OK;
     }
 
     @Override
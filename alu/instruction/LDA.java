@@ -2,9 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-//import util.Const;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class LDA extends AbstractInstruction {
@@ -15,7 +14,7 @@ public class LDA extends AbstractInstruction {
 	int i;
 
 	@Override
-	public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+	public int execute(String instruction, Registers registers, MCU mcu) {
 		// -----------------------------------
 		// 03:LDA -> Load Register From Memory
 		// -----------------------------------
@@ -25,12 +24,16 @@ public class LDA extends AbstractInstruction {
 		address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
 		int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+		if (effectiveAddress == EffectiveAddress.FAULT) {
+			return Const.STATUS_FAULT;
+		}
 
 		// reading the content of selected register using [R] in the
 		// instruction
 		registers.setRnByNum(r, effectiveAddress);
 		registers.increasePCByOne();
 
+		return Const.STATUS_OK;
 	}
 
 	@Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class MLT extends AbstractInstruction {
@@ -14,13 +14,15 @@ public class MLT extends AbstractInstruction {
 // ry = multiplier register (must be R0 or R2)
 // Operation: 32-bit result stored as R[rx]=high word, R[rx+1]=low word
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         rx = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ry = StringUtil.binaryToDecimal(instruction.substring(8, 10));
 
         if (!((rx == 0 || rx == 2) && (ry == 0 || ry == 2))) {
-            throw new RuntimeException("MLT requires rx and ry to be 0 or 2");
+            // MLT requires rx and ry to be 0 or 2
+            registers.setMFR(Const.FaultCode.ILL_OPRC.getValue());
+            return Const.STATUS_FAULT;
         }
 
         int a = registers.getRnByNum(rx);
@@ -35,6 +37,7 @@ public class MLT extends AbstractInstruction {
         registers.setRnByNum(rx + 1, low);
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class NOT extends AbstractInstruction {
@@ -10,7 +10,7 @@ public class NOT extends AbstractInstruction {
     int r;
 
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
 
@@ -18,6 +18,7 @@ public class NOT extends AbstractInstruction {
         registers.setRnByNum(r, value);
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
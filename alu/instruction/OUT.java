@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class OUT extends AbstractInstruction {
@@ -11,18 +11,16 @@ public class OUT extends AbstractInstruction {
     int devid;
 
     @Override
-public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+public int execute(String instruction, Registers registers, MCU mcu) {
 
     r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
     devid = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
-    // Send to printer buffer so GUI can display it
-    char c = (char) registers.getRnByNum(r);
-    String current = mcu.getPrinterBuffer();
-    if (current == null) current = "";
-    mcu.setPrinterBuffer(current + c);
+    // Send to the device; the printer hands its output to the GUI in batches
+    mcu.writeOutput(devid, registers.getRnByNum(r));
 
     registers.increasePCByOne();
+    return Const.STATUS_OK;
 }
 
     @Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class RFS extends AbstractInstruction {
@@ -13,12 +13,13 @@ public class RFS extends AbstractInstruction {
 // Operation: R0 = immed (return value for caller)
 //            PC = R3 (return to address saved by JSR)
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         immed = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         registers.setR0(immed);
         registers.setPC(registers.getR3());
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class RRC extends AbstractInstruction {
@@ -17,7 +17,7 @@ public class RRC extends AbstractInstruction {
 // Bits shifted out reenter from the other end (circular shift)
 // Result masked to 16 bits
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r     = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         lr    = StringUtil.binaryToDecimal(instruction.substring(9, 10));   // L/R
@@ -39,6 +39,7 @@ public class RRC extends AbstractInstruction {
         registers.setRnByNum(r, value);
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class SIR extends AbstractInstruction {
@@ -11,7 +11,7 @@ public class SIR extends AbstractInstruction {
     int immed;
 
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         immed = StringUtil.binaryToDecimal(instruction.substring(11, 16));
@@ -21,6 +21,7 @@ public class SIR extends AbstractInstruction {
         }
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,8 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class SOB extends AbstractInstruction {
@@ -19,7 +19,7 @@ public class SOB extends AbstractInstruction {
 //            if R[r] > 0, PC = EA (loop back)
 //            else PC = PC + 1 (exit loop)
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         ix = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -27,6 +27,9 @@ public class SOB extends AbstractInstruction {
         address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
         int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+        if (effectiveAddress == EffectiveAddress.FAULT) {
+            return Const.STATUS_FAULT;
+        }
 
         int value = registers.getRnByNum(r) - 1;
         registers.setRnByNum(r, value);
@@ -36,6 +39,7 @@ public class SOB extends AbstractInstruction {
         } else {
             registers.increasePCByOne();
         }
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class SRC extends AbstractInstruction {
@@ -19,7 +19,7 @@ public class SRC extends AbstractInstruction {
 // Arithmetic right shift preserves sign bit
 // Logical right shift fills with zeros
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
 
         r     = StringUtil.binaryToDecimal(instruction.substring(6, 8));
         al    = StringUtil.binaryToDecimal(instruction.substring(8, 9));   // A/L
@@ -42,6 +42,7 @@ public class SRC extends AbstractInstruction {
 
         registers.setRnByNum(r, value);
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -2,9 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-//import util.Const;
+import util.Const;
 import util.EffectiveAddress;
-import util.MachineFaultException;
 import util.StringUtil;
 
 public class STR extends AbstractInstruction {
@@ -15,7 +14,7 @@ public class STR extends AbstractInstruction {
 	int i;
 
 	@Override
-	public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+	public int execute(String instruction, Registers registers, MCU mcu) {
 		// -----------------------------------
 		// 02:STR -> Store Register to Memory
 		// -----------------------------------
@@ -25,6 +24,9 @@ public class STR extends AbstractInstruction {
 		address = StringUtil.binaryToDecimal(instruction.substring(11, 16));
 
 		int effectiveAddress = EffectiveAddress.calculateEA(ix, address, i, mcu, registers);
+		if (effectiveAddress == EffectiveAddress.FAULT) {
+			return Const.STATUS_FAULT;
+		}
 
 		// reading the content of selected register using [R] in the
 		// instruction
@@ -34,6 +36,7 @@ public class STR extends AbstractInstruction {
 		mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
 
 		registers.increasePCByOne();
+		return Const.STATUS_OK;
 	}
 
 	@Override
@@ -2,7 +2,8 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
+import util.EffectiveAddress;
 import util.StringUtil;
 
 public class STX extends AbstractInstruction {
@@ -13,7 +14,7 @@ public class STX extends AbstractInstruction {
     int i;
 
     @Override
-    public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+    public int execute(String instruction, Registers registers, MCU mcu) {
         // 42: STX -> Store Index Register to Memory
 
         r = StringUtil.binaryToDecimal(instruction.substring(6, 8));
@@ -27,6 +28,9 @@ public class STX extends AbstractInstruction {
 
         if (i == 1) {
             effectiveAddress = mcu.fetchFromCache(effectiveAddress);
+            if (!EffectiveAddress.isValidAddress(effectiveAddress, mcu, registers)) {
+                return Const.STATUS_FAULT;
+            }
         }
 
         int sourceReg = (r == 0 && ix != 0) ? ix : r;
@@ -36,6 +40,7 @@ public class STX extends AbstractInstruction {
         mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
 
         registers.increasePCByOne();
+        return Const.STATUS_OK;
     }
 
     @Override
@@ -0,0 +1,39 @@
+package alu.instruction;
+
+import cpu.Registers;
+import memory.MCU;
+import util.Const;
+import util.StringUtil;
+
+public class TRAP extends AbstractInstruction {
+
+    int trapCode;
+    // TRAP: Trap to a user routine
+// trapCode = index into the trap table whose address is in location 0
+// Operation: M[2] = PC + 1 (return address, the routine ends with JMA 0,2,I)
+//            PC = M[M[0] + trapCode]
+// A trap code above 15 is a machine fault (ILL_TRPC)
+    @Override
+    public int execute(String instruction, Registers registers, MCU mcu) {
+
+        trapCode = StringUtil.binaryToDecimal(instruction.substring(11, 16));
+
+        // targets are cached by the MCU and re-read after the table changes
+        int target = mcu.getTrapVectors().resolve(trapCode);
+        if (target < 0) {
+            registers.setMFR(Const.FaultCode.ILL_TRPC.getValue());
+            return Const.STATUS_FAULT;
+        }
+
+        registers.setMAR(Const.TRAP_PC_LOCATION);
+        registers.setMBR(registers.getPC() + 1);
+        mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
+        registers.setPC(target);
+        return Const.STATUS_OK;
+    }
+
+    @Override
+    public String getExecuteMessage() {
+        return "TRAP executed";
+    }
+}
@@ -2,7 +2,7 @@ package alu.instruction;
 
 import cpu.Registers;
 import memory.MCU;
-import util.MachineFaultException;
+import util.Const;
 import util.StringUtil;
 
 public class TRR extends AbstractInstruction {
@@ -15,7 +15,7 @@ public class TRR extends AbstractInstruction {
 //            else clear CC bit 3 = 0
 // Used by JCC instruction to branch on equality
     @Override
-public void execute(String instruction, Registers registers, MCU mcu) throws MachineFaultException {
+public int execute(String instruction, Registers registers, MCU mcu) {
 
     r  = StringUtil.binaryToDecimal(instruction.substring(6, 8));
     rx = StringUtil.binaryToDecimal(instruction.substring(8, 10));
@@ -27,6 +27,7 @@ public void execute(String instruction, Registers registers, MCU mcu) throws Mac
     }
 
     registers.increasePCByOne();
+    return Const.STATUS_OK;
 }
 
     @Override
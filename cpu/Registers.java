@@ -101,10 +101,12 @@ public class Registers {
 
     public void setFr0(int fr0) {
         this.fr0 = fr0;
+        this.dirty |= DIRTY_FR0;
     }
 
     public void setFr1(int fr1) {
         this.fr1 = fr1;
+        this.dirty |= DIRTY_FR1;
     }
 
     /**
@@ -113,6 +115,48 @@ public class Registers {
      */
     int fr1;
 
+    /**
+     * names of the registers in saveTo() order; bit i of the dirty mask
+     * stands for NAMES[i]
+     */
+    public static final String[] NAMES = { "R0", "R1", "R2", "R3", "X1", "X2", "X3", "PC", "IR", "MAR", "MBR",
+            "MSR", "MFR", "CC", "FR0", "FR1" };
+
+    public static final int DIRTY_R0 = 1 << 0;
+    public static final int DIRTY_R1 = 1 << 1;
+    public static final int DIRTY_R2 = 1 << 2;
+    public static final int DIRTY_R3 = 1 << 3;
+    public static final int DIRTY_X1 = 1 << 4;
+    public static final int DIRTY_X2 = 1 << 5;
+    public static final int DIRTY_X3 = 1 << 6;
+    public static final int DIRTY_PC = 1 << 7;
+    public static final int DIRTY_IR = 1 << 8;
+    public static final int DIRTY_MAR = 1 << 9;
+    public static final int DIRTY_MBR = 1 << 10;
+    public static final int DIRTY_MSR = 1 << 11;
+    public static final int DIRTY_MFR = 1 << 12;
+    public static final int DIRTY_CC = 1 << 13;
+    public static final int DIRTY_FR0 = 1 << 14;
+    public static final int DIRTY_FR1 = 1 << 15;
+    public static final int ALL_DIRTY = (1 << 16) - 1;
+
+    /**
+     * Registers written since the last takeDirty(), one DIRTY_ bit each. A
+     * write sets its bit even if the value did not change, so tracking costs
+     * the CPU one OR per write; the front panel compares values itself.
+     */
+    int dirty = ALL_DIRTY;
+
+    /**
+     * @return the DIRTY_ bits of the registers written since the last call,
+     *         and clear them
+     */
+    public int takeDirty() {
+        int d = this.dirty;
+        this.dirty = 0;
+        return d;
+    }
+
     /**
      * initialize all the registers
      */
@@ -133,10 +177,36 @@ public class Registers {
         this.x3 = 0;
     }
 
+    /**
+     * copy every register of another register file, used when forking a
+     * machine
+     */
+    public Registers(Registers other) {
+        this.cc = other.cc;
+        this.ir = other.ir;
+        this.mar = other.mar;
+        this.mbr = other.mbr;
+        this.mfr = other.mfr;
+        this.msr = other.msr;
+        this.pc = other.pc;
+        this.r0 = other.r0;
+        this.r1 = other.r1;
+        this.r2 = other.r2;
+        this.r3 = other.r3;
+        this.x1 = other.x1;
+        this.x2 = other.x2;
+        this.x3 = other.x3;
+        this.fr0 = other.fr0;
+        this.fr1 = other.fr1;
+        this.exp = other.exp;
+        this.man = other.man;
+    }
+
     /**
      * reset all the registers
      */
     public void init() {
+        this.dirty = ALL_DIRTY;
         this.cc = 0;
         this.ir = 0;
         this.mar = 0;
@@ -159,6 +229,7 @@ public class Registers {
 
     public void setCC(int cc) {
         this.cc = cc;
+        this.dirty |= DIRTY_CC;
     }
 
     /**
@@ -187,6 +258,7 @@ public class Registers {
      *
      */
     public void setCCElementByBit(int bitNum, boolean flag) {
+        this.dirty |= DIRTY_CC;
         if (flag) {
             this.cc = (this.cc | (1 << bitNum));
         } else {
@@ -201,6 +273,7 @@ public class Registers {
 
     public void setR0(int r0) {
         this.r0 = r0;
+        this.dirty |= DIRTY_R0;
     }
 
     public int getR1() {
@@ -209,6 +282,7 @@ public class Registers {
 
     public void setR1(int r1) {
         this.r1 = r1;
+        this.dirty |= DIRTY_R1;
     }
 
     public int getR2() {
@@ -217,6 +291,7 @@ public class Registers {
 
     public void setR2(int r2) {
         this.r2 = r2;
+        this.dirty |= DIRTY_R2;
     }
 
     public int getR3() {
@@ -225,6 +300,7 @@ public class Registers {
 
     public void setR3(int r3) {
         this.r3 = r3;
+        this.dirty |= DIRTY_R3;
     }
 
     /**
@@ -235,6 +311,8 @@ public class Registers {
      *            the value of the GPR
      */
     public void setRnByNum(int num, int r) {
+        if (num >= 0 && num <= 3)
+            this.dirty |= DIRTY_R0 << num;
         if (num == 0)
             this.r0 = r;
         if (num == 1)
@@ -278,6 +356,7 @@ public String getOctalStringIr() {
 }
     public void setIR(int ir) {
         this.ir = ir;
+        this.dirty |= DIRTY_IR;
     }
 
     public int getMAR() {
@@ -286,6 +365,7 @@ public String getOctalStringIr() {
 
     public void setMAR(int mar) {
         this.mar = mar;
+        this.dirty |= DIRTY_MAR;
     }
 
     public int getMBR() {
@@ -294,6 +374,7 @@ public String getOctalStringIr() {
 
     public void setMBR(int mbr) {
         this.mbr = mbr;
+        this.dirty |= DIRTY_MBR;
     }
 
     public int getMFR() {
@@ -302,6 +383,7 @@ public String getOctalStringIr() {
 
     public void setMFR(int mfr) {
         this.mfr = mfr;
+        this.dirty |= DIRTY_MFR;
     }
 
     public int getMSR() {
@@ -310,6 +392,7 @@ public String getOctalStringIr() {
 
     public void setMSR(int msr) {
         this.msr = msr;
+        this.dirty |= DIRTY_MSR;
     }
 
     public int getPC() {
@@ -318,9 +401,11 @@ public String getOctalStringIr() {
 
     public  void setPC(int pc) {
         this.pc = pc;
+        this.dirty |= DIRTY_PC;
     }
 
     public void increasePCByOne() {
+    this.dirty |= DIRTY_PC;
     this.pc = (this.pc + 1) & 0xFFF;   // ✅ 12-bit PC
   }
     
@@ -331,6 +416,7 @@ public String getOctalStringIr() {
 
     public void setX1(int x1) {
         this.x1 = x1;
+        this.dirty |= DIRTY_X1;
     }
 
     public int getX2() {
@@ -339,6 +425,7 @@ public String getOctalStringIr() {
 
     public void setX2(int x2) {
         this.x2 = x2;
+        this.dirty |= DIRTY_X2;
     }
 
     public int getX3() {
@@ -347,6 +434,7 @@ public String getOctalStringIr() {
 
     public void setX3(int x3) {
         this.x3 = x3;
+        this.dirty |= DIRTY_X3;
     }
 
     public int getFR0(){
@@ -355,6 +443,7 @@ public String getOctalStringIr() {
 
     public void setFR0(int fr0) {
     	this.fr0=fr0;
+    	this.dirty |= DIRTY_FR0;
     }
 
     public int getFR1() {
@@ -363,6 +452,7 @@ public String getOctalStringIr() {
 
     public void setFR1(int fr1) {
     	this.fr1=fr1;
+    	this.dirty |= DIRTY_FR1;
     }
 
     /**
@@ -387,6 +477,8 @@ public String getOctalStringIr() {
      *            the value of Index Register
      */
     public void setXnByNum(int num, int x) {
+        if (num >= 1 && num <= 3)
+            this.dirty |= DIRTY_X1 << (num - 1);
         if (num == 1)
             this.x1 = x;
         if (num == 2)
@@ -406,6 +498,9 @@ public String getOctalStringIr() {
     }
 
     public void setFRByNum(int num, int fr){
+    	if (num==0 || num==1){
+    		this.dirty |= DIRTY_FR0 << num;
+    	}
     	if (num==0){
     		this.fr0=fr;
     	}
@@ -418,6 +513,9 @@ public String getOctalStringIr() {
     String man="00000000";
     String output=null;
     public int getConvertFRByNum(int num) {
+        // normalizes the register in place
+        if (num == 0 || num == 1)
+            this.dirty |= DIRTY_FR0 << num;
         if (num == 0){
         	String fr0s=Integer.toBinaryString(fr0);
         	int len=fr0s.length();
@@ -519,6 +617,9 @@ public String getOctalStringIr() {
     }
 
     public void setConvertFRByNum(int num, int fr) {
+    	if (num==0 || num==1){
+    		this.dirty |= DIRTY_FR0 << num;
+    	}
     	String input=null;
 
     	if(num==0){
@@ -605,6 +706,57 @@ public String getOctalStringIr() {
         }
     }
 
+    /**
+     * number of values written by saveTo()
+     */
+    public static final int SAVED_REGISTERS = 16;
+
+    /**
+     * Save every register into values[0..SAVED_REGISTERS-1], in a fixed
+     * order understood by loadFrom().
+     */
+    public void saveTo(int[] values) {
+        values[0] = this.r0;
+        values[1] = this.r1;
+        values[2] = this.r2;
+        values[3] = this.r3;
+        values[4] = this.x1;
+        values[5] = this.x2;
+        values[6] = this.x3;
+        values[7] = this.pc;
+        values[8] = this.ir;
+        values[9] = this.mar;
+        values[10] = this.mbr;
+        values[11] = this.msr;
+        values[12] = this.mfr;
+        values[13] = this.cc;
+        values[14] = this.fr0;
+        values[15] = this.fr1;
+    }
+
+    /**
+     * Load every register from values written by saveTo().
+     */
+    public void loadFrom(int[] values) {
+        this.dirty = ALL_DIRTY;
+        this.r0 = values[0];
+        this.r1 = values[1];
+        this.r2 = values[2];
+        this.r3 = values[3];
+        this.x1 = values[4];
+        this.x2 = values[5];
+        this.x3 = values[6];
+        this.pc = values[7];
+        this.ir = values[8];
+        this.mar = values[9];
+        this.mbr = values[10];
+        this.msr = values[11];
+        this.mfr = values[12];
+        this.cc = values[13];
+        this.fr0 = values[14];
+        this.fr1 = values[15];
+    }
+
     public int getRegistersByName(String name) {
         if (name.equals("CC"))
             return this.cc;
@@ -641,6 +793,45 @@ public String getOctalStringIr() {
         return 0;
     }
 
+    public void setRegistersByName(String name, int value) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name))
+                this.dirty |= 1 << i;
+        }
+        if (name.equals("CC"))
+            this.cc = value;
+        if (name.equals("R0"))
+            this.r0 = value;
+        if (name.equals("R1"))
+            this.r1 = value;
+        if (name.equals("R2"))
+            this.r2 = value;
+        if (name.equals("R3"))
+            this.r3 = value;
+        if (name.equals("IR"))
+            this.ir = value;
+        if (name.equals("MAR"))
+            this.mar = value;
+        if (name.equals("MBR"))
+            this.mbr = value;
+        if (name.equals("MFR"))
+            this.mfr = value;
+        if (name.equals("MSR"))
+            this.msr = value;
+        if (name.equals("PC"))
+            this.pc = value;
+        if (name.equals("X1"))
+            this.x1 = value;
+        if (name.equals("X2"))
+            this.x2 = value;
+        if (name.equals("X3"))
+            this.x3 = value;
+        if (name.equals("FR0"))
+            this.fr0 = value;
+        if (name.equals("FR1"))
+            this.fr1 = value;
+    }
+
     public int getBitLongByName(String name) {
         if (name.equals("CC"))
             return 4;
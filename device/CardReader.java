@@ -0,0 +1,177 @@
+package device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Card reader device for IN (DevId CARD).<br/>
+ * The deck is a file that is never read into the Java heap: it is mapped
+ * window by window and IN gets one byte (as a character) at a time, so a
+ * multi-megabyte input costs one window of address space, not a String.
+ * A deck is loaded from the front panel while the CPU reads on its own
+ * thread, so the reader is guarded by its monitor.
+ */
+public class CardReader implements Device {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 20;
+
+    private final int windowSize;
+    private FileChannel channel;
+    private long size;
+    // file position of the start of window
+    private long windowStart;
+    private ByteBuffer window = ByteBuffer.allocate(0);
+    // raised when a deck is loaded
+    private InterruptController interrupts;
+    private int line;
+
+    public CardReader() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public CardReader(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Copy positioned at the same card; it shares the file with the
+     * original (closing one closes it for both) but reads on
+     * independently.
+     */
+    public CardReader(CardReader other) {
+        this.windowSize = other.windowSize;
+        synchronized (other) {
+            this.channel = other.channel;
+            this.size = other.size;
+            this.windowStart = other.windowStart;
+            this.window = other.window.duplicate();
+        }
+    }
+
+    /**
+     * Raise the given interrupt line whenever a deck is loaded.
+     */
+    public synchronized void connectInterrupt(InterruptController interrupts, int line) {
+        this.interrupts = interrupts;
+        this.line = line;
+    }
+
+    /**
+     * Put a deck in the reader, replacing what was left of the previous
+     * one.
+     */
+    public synchronized void load(Path file) throws IOException {
+        close();
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowStart = 0;
+        this.window = ByteBuffer.allocate(0);
+        loaded();
+    }
+
+    /**
+     * Put a deck given as text in the reader (one byte per character).
+     */
+    public synchronized void load(String text) throws IOException {
+        close();
+        this.window = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        this.size = window.capacity();
+        this.windowStart = 0;
+        loaded();
+    }
+
+    /**
+     * @return next character, or -1 at the end of the deck
+     */
+    @Override
+    public synchronized int read() {
+        if (!window.hasRemaining() && !nextWindow()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    /**
+     * Put the last character read back, e.g. when the CPU steps back over
+     * the IN that read it.
+     */
+    public synchronized void unread() {
+        if (window.position() > 0) {
+            window.position(window.position() - 1);
+            return;
+        }
+        if (channel == null || windowStart == 0) {
+            return;
+        }
+        // the character is the last one of the previous window
+        long start = Math.max(0, windowStart - windowSize);
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowStart - start);
+            window.position(window.limit() - 1);
+            windowStart = start;
+        } catch (IOException e) {
+            System.out.println("Card reader error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The card reader has no output; OUT to it is ignored.
+     */
+    @Override
+    public void write(int word) {
+    }
+
+    /**
+     * Nobody adds cards to a deck while it is read, so an empty reader
+     * stays empty.
+     */
+    @Override
+    public synchronized int status() {
+        return remaining() > 0 ? STATUS_READY : STATUS_END;
+    }
+
+    /**
+     * @return number of characters left in the deck
+     */
+    public synchronized long remaining() {
+        return size - windowStart - window.position();
+    }
+
+    /**
+     * Take the rest of the deck out of the reader and close its file.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        size = 0;
+        windowStart = 0;
+        window = ByteBuffer.allocate(0);
+    }
+
+    private void loaded() {
+        if (interrupts != null && size > 0) {
+            interrupts.raise(line);
+        }
+    }
+
+    private boolean nextWindow() {
+        long next = windowStart + window.limit();
+        if (channel == null || next >= size) {
+            return false;
+        }
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(windowSize, size - next));
+            windowStart = next;
+            return true;
+        } catch (IOException e) {
+            System.out.println("Card reader error: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package device;
+
+/**
+ * An I/O device on the DeviceBus, addressed by the devid field of IN, OUT
+ * and CHK.
+ */
+public interface Device {
+
+    /**
+     * status bit: input is available, or output is accepted
+     */
+    int STATUS_READY = 1;
+    /**
+     * status bit: no more input will come
+     */
+    int STATUS_END = 2;
+    /**
+     * status bit: the last operation failed
+     */
+    int STATUS_ERROR = 4;
+
+    /**
+     * IN: next input word.
+     *
+     * @return the word, or -1 if no input is available
+     */
+    int read();
+
+    /**
+     * OUT: take one output word.
+     */
+    void write(int word);
+
+    /**
+     * CHK: device status word, a combination of the STATUS_ bits.
+     */
+    int status();
+
+    /**
+     * Called after an IN found no input: block until input may be
+     * available. Devices that are not fed by another thread return at once.
+     *
+     * @return false if no more input will ever come
+     */
+    default boolean awaitInput() {
+        return (status() & STATUS_END) == 0;
+    }
+
+    /**
+     * Number of buffer words the device exposes in the memory-mapped I/O
+     * region, after its status and data words.
+     */
+    default int bufferWords() {
+        return 0;
+    }
+
+    /**
+     * Load from the memory-mapped buffer.
+     *
+     * @param index
+     *            0 .. bufferWords() - 1
+     */
+    default int readBuffer(int index) {
+        return 0;
+    }
+
+    /**
+     * Store into the memory-mapped buffer.
+     *
+     * @param index
+     *            0 .. bufferWords() - 1
+     */
+    default void writeBuffer(int index, int word) {
+    }
+
+    /**
+     * Empty device slot: no input, output is dropped, status 0.
+     */
+    Device NONE = new Device() {
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public void write(int word) {
+        }
+
+        @Override
+        public int status() {
+            return 0;
+        }
+
+        @Override
+        public boolean awaitInput() {
+            return false;
+        }
+    };
+}
@@ -0,0 +1,97 @@
+package device;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Devices indexed by devid. The 5 bit devid field selects one of DEVICES
+ * slots, so IN, OUT and CHK dispatch with one array read; empty slots
+ * hold Device.NONE. An access observer, if set, is told the devid of every
+ * read, write, status and buffer access.
+ */
+public class DeviceBus {
+
+    public static final int DEVICES = 32;
+
+    private final Device[] devices = new Device[DEVICES];
+    private IntConsumer accessObserver;
+
+    public DeviceBus() {
+        Arrays.fill(devices, Device.NONE);
+    }
+
+    /**
+     * Attach a device, replacing the one that had the devid.
+     */
+    public void register(int devid, Device device) {
+        checkDevid(devid);
+        devices[devid] = device == null ? Device.NONE : device;
+    }
+
+    public void unregister(int devid) {
+        register(devid, Device.NONE);
+    }
+
+    /**
+     * @return the device, Device.NONE if the slot is empty
+     */
+    public Device get(int devid) {
+        return devices[devid & (DEVICES - 1)];
+    }
+
+    public boolean isRegistered(int devid) {
+        return get(devid) != Device.NONE;
+    }
+
+    /**
+     * Watch device accesses, e.g. to know which ones cannot be undone.
+     */
+    public void setAccessObserver(IntConsumer accessObserver) {
+        this.accessObserver = accessObserver;
+    }
+
+    public IntConsumer getAccessObserver() {
+        return accessObserver;
+    }
+
+    public int read(int devid) {
+        accessed(devid);
+        return devices[devid & (DEVICES - 1)].read();
+    }
+
+    public void write(int devid, int word) {
+        accessed(devid);
+        devices[devid & (DEVICES - 1)].write(word);
+    }
+
+    public int status(int devid) {
+        accessed(devid);
+        return devices[devid & (DEVICES - 1)].status();
+    }
+
+    public int readBuffer(int devid, int index) {
+        accessed(devid);
+        return devices[devid & (DEVICES - 1)].readBuffer(index);
+    }
+
+    public void writeBuffer(int devid, int index, int word) {
+        accessed(devid);
+        devices[devid & (DEVICES - 1)].writeBuffer(index, word);
+    }
+
+    public boolean awaitInput(int devid) {
+        return devices[devid & (DEVICES - 1)].awaitInput();
+    }
+
+    private void accessed(int devid) {
+        if (accessObserver != null) {
+            accessObserver.accept(devid & (DEVICES - 1));
+        }
+    }
+
+    private static void checkDevid(int devid) {
+        if (devid < 0 || devid >= DEVICES) {
+            throw new IllegalArgumentException("Device id " + devid + " out of range 0.." + (DEVICES - 1));
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package device;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.Const;
+
+/**
+ * Block disk (DevId DISK for control, DISK_DATA for data).<br/>
+ * The disk is an image file of blocks of BLOCK_WORDS 16 bit words, mapped
+ * into the host address space with FileChannel.map, so it keeps its
+ * content between runs and can be much larger than the 4096 word memory.
+ * <br/>
+ * OUT to DISK is a command: bits 12-15 the operation (READ or WRITE), bits
+ * 0-11 the block number. READ fills the block buffer from the disk, WRITE
+ * writes the block buffer to the disk; both reset the buffer cursor. IN
+ * and OUT on DISK_DATA read and write the block buffer one word at a time
+ * (DMA can move it in one transfer). IN on DISK returns the simulated time
+ * of the last command in cycles, CHK on DISK returns STATUS_READY and
+ * STATUS_ERROR if the last command failed.<br/>
+ * Latency model: moving the head costs seekCyclesPerBlock per block of
+ * distance, every access costs rotationCycles plus transferCyclesPerWord
+ * per word. Blocks found in the in-device cache of cacheBlocks blocks cost
+ * only the transfer. Once connected with connectClock(), the time of a
+ * command is charged to the CPU's cycle counter, as the OUT waits for it.
+ */
+public class Disk implements Device, Closeable {
+
+    public static final int BLOCK_WORDS = 256;
+    public static final int DEFAULT_BLOCKS = 4096;
+    public static final int DEFAULT_CACHE_BLOCKS = 16;
+
+    public static final int READ = 1;
+    public static final int WRITE = 2;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer image;
+    private final int blocks;
+
+    // the block buffer the data port reads and writes
+    private final int[] buffer = new int[BLOCK_WORDS];
+    private int cursor;
+
+    private final LinkedHashMap<Integer, int[]> cache;
+
+    private int seekCyclesPerBlock = 2;
+    private int rotationCycles = 100;
+    private int transferCyclesPerWord = 1;
+
+    private InterruptController clock;
+    private int headBlock;
+    private int lastCycles;
+    private boolean lastFailed;
+
+    private long reads;
+    private long writes;
+    private long cacheHits;
+    private long cacheMisses;
+    private long simulatedCycles;
+
+    private final Device dataPort = new Device() {
+        @Override
+        public int read() {
+            return cursor < BLOCK_WORDS ? buffer[cursor++] : -1;
+        }
+
+        @Override
+        public void write(int word) {
+            if (cursor < BLOCK_WORDS) {
+                buffer[cursor++] = word & 0xFFFF;
+            }
+        }
+
+        @Override
+        public int status() {
+            return cursor < BLOCK_WORDS ? STATUS_READY : STATUS_READY | STATUS_END;
+        }
+
+        // mapped, the whole block buffer can be walked with an index register
+        @Override
+        public int bufferWords() {
+            return BLOCK_WORDS;
+        }
+
+        @Override
+        public int readBuffer(int index) {
+            return buffer[index];
+        }
+
+        @Override
+        public void writeBuffer(int index, int word) {
+            buffer[index] = word & 0xFFFF;
+        }
+    };
+
+    public Disk(Path imageFile) throws IOException {
+        this(imageFile, DEFAULT_BLOCKS, DEFAULT_CACHE_BLOCKS);
+    }
+
+    /**
+     * Open the image file, creating (zero filled) or growing it to the
+     * given number of blocks.
+     */
+    public Disk(Path imageFile, int blocks, final int cacheBlocks) throws IOException {
+        this.blocks = blocks;
+        this.channel = FileChannel.open(imageFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.image = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) blocks * BLOCK_WORDS * 2);
+        this.cache = new LinkedHashMap<Integer, int[]>(cacheBlocks * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    /**
+     * Register the control device as DISK and the data port as DISK_DATA.
+     */
+    public void attachTo(DeviceBus bus) {
+        bus.register(Const.DevId.DISK.getValue(), this);
+        bus.register(Const.DevId.DISK_DATA.getValue(), dataPort);
+    }
+
+    /**
+     * Charge the time of every command to the CPU whose cycle counter the
+     * controller follows.
+     */
+    public void connectClock(InterruptController clock) {
+        this.clock = clock;
+    }
+
+    public Device getDataPort() {
+        return dataPort;
+    }
+
+    public void setLatency(int seekCyclesPerBlock, int rotationCycles, int transferCyclesPerWord) {
+        this.seekCyclesPerBlock = seekCyclesPerBlock;
+        this.rotationCycles = rotationCycles;
+        this.transferCyclesPerWord = transferCyclesPerWord;
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return simulated time taken by all commands, in cycles
+     */
+    public long getSimulatedCycles() {
+        return simulatedCycles;
+    }
+
+    /**
+     * @return one line of statistics
+     */
+    public String getStatistics() {
+        long accesses = cacheHits + cacheMisses;
+        return String.format("disk: reads=%d, writes=%d, block cache hits=%d, misses=%d (%.1f%% hit), cycles=%d",
+                reads, writes, cacheHits, cacheMisses, accesses == 0 ? 0 : 100.0 * cacheHits / accesses,
+                simulatedCycles);
+    }
+
+    @Override
+    public int read() {
+        return lastCycles;
+    }
+
+    @Override
+    public void write(int word) {
+        int op = (word >>> 12) & 0xF;
+        int block = word & 0xFFF;
+        lastFailed = false;
+        lastCycles = 0;
+        if (block >= blocks || (op != READ && op != WRITE)) {
+            lastFailed = true;
+            return;
+        }
+        cursor = 0;
+        if (op == READ) {
+            readBlock(block, buffer);
+        } else {
+            writeBlock(block, buffer);
+        }
+        if (clock != null) {
+            clock.chargeCycles(lastCycles);
+        }
+    }
+
+    @Override
+    public int status() {
+        return lastFailed ? STATUS_READY | STATUS_ERROR : STATUS_READY;
+    }
+
+    /**
+     * Read a block into words, going through the block cache.
+     */
+    public void readBlock(int block, int[] words) {
+        reads++;
+        int[] cached = cache.get(block);
+        if (cached != null) {
+            cacheHits++;
+            lastCycles = transferCyclesPerWord * BLOCK_WORDS;
+        } else {
+            cacheMisses++;
+            lastCycles = accessCycles(block);
+            cached = new int[BLOCK_WORDS];
+            int base = block * BLOCK_WORDS * 2;
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                cached[i] = image.getChar(base + i * 2);
+            }
+            cache.put(block, cached);
+        }
+        simulatedCycles += lastCycles;
+        System.arraycopy(cached, 0, words, 0, BLOCK_WORDS);
+    }
+
+    /**
+     * Write a block through to the image, keeping the cached copy current.
+     */
+    public void writeBlock(int block, int[] words) {
+        writes++;
+        lastCycles = accessCycles(block);
+        simulatedCycles += lastCycles;
+        int base = block * BLOCK_WORDS * 2;
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            image.putChar(base + i * 2, (char) words[i]);
+        }
+        int[] cached = cache.get(block);
+        if (cached != null) {
+            System.arraycopy(words, 0, cached, 0, BLOCK_WORDS);
+        }
+    }
+
+    private int accessCycles(int block) {
+        int cycles = seekCyclesPerBlock * Math.abs(block - headBlock) + rotationCycles
+                + transferCyclesPerWord * BLOCK_WORDS;
+        headBlock = block;
+        return cycles;
+    }
+
+    /**
+     * Write the image back to the file and close it.
+     */
+    @Override
+    public void close() throws IOException {
+        image.force();
+        channel.close();
+    }
+}
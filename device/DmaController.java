@@ -0,0 +1,227 @@
+package device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import memory.MCU;
+
+/**
+ * DMA controller (DevId DMA).<br/>
+ * Moves a block between memory and a host file or another device without
+ * an IN or OUT per word. A program sets up a transfer with three OUTs to
+ * the controller: the command, the memory address and the word count; the
+ * third OUT performs the transfer. Commands are
+ * <ul>
+ * <li>FILE_TO_MEMORY, MEMORY_TO_FILE: one byte of the attached host file
+ * per word, continuing where the last transfer stopped. The file is read
+ * through the MCU's input, so a recorder logs the words and a replayer
+ * supplies them without the file</li>
+ * <li>DEVICE_TO_MEMORY, MEMORY_TO_DEVICE with the devid in bits 8-12 of the
+ * command: the words go through the MCU's input and output like IN and OUT
+ * do, so a recorder sees them; a device to memory transfer stops early
+ * when the device runs out of input</li>
+ * </ul>
+ * IN from the controller returns the number of words moved by the last
+ * transfer and CHK reports STATUS_READY, plus STATUS_ERROR if it failed.
+ * Every transfer takes SETUP_CYCLES + CYCLES_PER_WORD per word, charged to
+ * the CPU's cycle counter.
+ */
+public class DmaController implements Device {
+
+    public static final int FILE_TO_MEMORY = 1;
+    public static final int MEMORY_TO_FILE = 2;
+    public static final int DEVICE_TO_MEMORY = 3;
+    public static final int MEMORY_TO_DEVICE = 4;
+
+    public static final int SETUP_CYCLES = 10;
+    public static final int CYCLES_PER_WORD = 1;
+
+    private final MCU mcu;
+    private FileChannel file;
+
+    // registers latched by OUT: command, address, count
+    private final int[] latched = new int[3];
+    private int latchedCount;
+
+    private int lastMoved;
+    private boolean lastFailed;
+    private long wordsMoved;
+    private long transfers;
+    private long simulatedCycles;
+
+    public DmaController(MCU mcu) {
+        this.mcu = mcu;
+    }
+
+    /**
+     * Attach the host file for FILE_TO_MEMORY and MEMORY_TO_FILE, created
+     * if it does not exist; transfers start at its beginning.
+     */
+    public void attachFile(Path path) throws IOException {
+        detachFile();
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public void detachFile() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * @return total number of words moved by all transfers
+     */
+    public long getWordsMoved() {
+        return wordsMoved;
+    }
+
+    public long getTransfers() {
+        return transfers;
+    }
+
+    /**
+     * @return simulated time taken by all transfers, in cycles
+     */
+    public long getSimulatedCycles() {
+        return simulatedCycles;
+    }
+
+    @Override
+    public int read() {
+        return lastMoved;
+    }
+
+    @Override
+    public void write(int word) {
+        latched[latchedCount++] = word;
+        if (latchedCount == latched.length) {
+            latchedCount = 0;
+            transfer(latched[0], latched[1], latched[2]);
+        }
+    }
+
+    @Override
+    public int status() {
+        return lastFailed ? STATUS_READY | STATUS_ERROR : STATUS_READY;
+    }
+
+    /**
+     * Perform one transfer, as programmed by the three OUTs.
+     */
+    public void transfer(int command, int address, int count) {
+        lastMoved = 0;
+        lastFailed = false;
+        try {
+            switch (command & 0xFF) {
+            case FILE_TO_MEMORY:
+                lastMoved = fileToMemory(address, count);
+                break;
+            case MEMORY_TO_FILE:
+                lastMoved = memoryToFile(address, count);
+                break;
+            case DEVICE_TO_MEMORY:
+                lastMoved = deviceToMemory((command >>> 8) & 0x1F, address, count);
+                break;
+            case MEMORY_TO_DEVICE:
+                lastMoved = memoryToDevice((command >>> 8) & 0x1F, address, count);
+                break;
+            default:
+                lastFailed = true;
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            lastFailed = true;
+        }
+        transfers++;
+        wordsMoved += lastMoved;
+        long cycles = SETUP_CYCLES + (long) CYCLES_PER_WORD * lastMoved;
+        simulatedCycles += cycles;
+        mcu.getInterrupts().chargeCycles(cycles);
+    }
+
+    private int fileToMemory(int address, int count) throws IOException {
+        checkRange(address, count);
+        int[] words = new int[count];
+        int n = mcu.readFile(words, count);
+        if (n < 0) {
+            throw new IOException("Cannot read the attached file");
+        }
+        mcu.storeBlock(address, words, 0, n);
+        return n;
+    }
+
+    /**
+     * Read the next bytes of the attached file, one per word. This is the
+     * MCU's own source for FILE_TO_MEMORY.
+     *
+     * @return the number of words read, or -1 if there is no file or it
+     *         cannot be read
+     */
+    public int readFile(int[] words, int count) {
+        if (file == null) {
+            return -1;
+        }
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate(count);
+            while (bytes.hasRemaining() && file.read(bytes) > 0) {
+            }
+            bytes.flip();
+            int n = bytes.remaining();
+            for (int i = 0; i < n; i++) {
+                words[i] = bytes.get() & 0xFF;
+            }
+            return n;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private int memoryToFile(int address, int count) throws IOException {
+        checkRange(address, count);
+        if (file == null) {
+            throw new IOException("No file attached");
+        }
+        int[] words = new int[count];
+        mcu.fetchBlock(address, words, 0, count);
+        ByteBuffer bytes = ByteBuffer.allocate(count);
+        for (int word : words) {
+            bytes.put((byte) word);
+        }
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            file.write(bytes);
+        }
+        return count;
+    }
+
+    private int deviceToMemory(int devid, int address, int count) {
+        checkRange(address, count);
+        int[] words = new int[count];
+        int n = 0;
+        int word;
+        while (n < count && (word = mcu.readInput(devid)) >= 0) {
+            words[n++] = word;
+        }
+        mcu.storeBlock(address, words, 0, n);
+        return n;
+    }
+
+    private int memoryToDevice(int devid, int address, int count) {
+        checkRange(address, count);
+        int[] words = new int[count];
+        mcu.fetchBlock(address, words, 0, count);
+        for (int word : words) {
+            mcu.writeOutput(devid, word);
+        }
+        return count;
+    }
+
+    private void checkRange(int address, int count) {
+        if (address < 0 || count < 0 || address + count > mcu.getCurrentMemorySize()) {
+            throw new IndexOutOfBoundsException("DMA block " + address + "+" + count);
+        }
+    }
+}
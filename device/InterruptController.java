@@ -0,0 +1,355 @@
+package device;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+import cpu.Registers;
+import memory.MCU;
+import util.Const;
+
+/**
+ * Interrupt controller (DevId INTC).<br/>
+ * Devices raise interrupt lines, numbered like their devid. Before each
+ * instruction the CPU checks for a pending unmasked line; if MSR has
+ * Const.MSR_INTERRUPT_ENABLE set it saves PC and MSR in the reserved
+ * locations, clears the enable bit and continues at the handler whose
+ * address is in Const.INTERRUPT_HANDLER_LOCATION.<br/>
+ * OUT to the controller is a command, bits 12-15 the operation and bits
+ * 0-4 the line for MASK and UNMASK. ENABLE sets the MSR enable bit, RETURN
+ * restores the MSR saved at delivery; both take effect after the next
+ * instruction, so a handler returns with OUT RETURN followed by
+ * JMA 0,3,I without being interrupted in between. IN returns the line of
+ * the last delivered interrupt and CHK reports STATUS_READY while an
+ * interrupt is pending.<br/>
+ * The controller also keeps the deadlines of the interval timers, so the
+ * CPU only compares its cycle counter with one number per instruction.
+ * <br/>
+ * Devices fed from other threads (keyboard, card reader) raise() their
+ * line at any time; the CPU latches those lines at the next instruction
+ * boundary, which is where a recorder logs them so a replay sees each
+ * interrupt at the same instruction.
+ */
+public class InterruptController implements Device {
+
+    public static final int ENABLE = 1;
+    public static final int DISABLE = 2;
+    public static final int MASK = 3;
+    public static final int UNMASK = 4;
+    public static final int RETURN = 5;
+
+    private final MCU mcu;
+    private Registers registers;
+    private LongSupplier clock = () -> 0;
+
+    // one bit per line; raised from any thread, latched into pending by
+    // the CPU thread
+    private volatile int raised;
+    private int pending;
+    private IntConsumer latchObserver;
+    private int mask = -1;
+    private int cause;
+    // the next instruction must not be interrupted
+    private boolean shadow;
+    private long delivered;
+
+    private IntervalTimer[] timers = new IntervalTimer[0];
+    private long nextDeadline = Long.MAX_VALUE;
+
+    // cycles devices kept the CPU waiting in the current instruction
+    private long charged;
+    // set by wakeUp()
+    private boolean woken;
+
+    public InterruptController(MCU mcu) {
+        this.mcu = mcu;
+    }
+
+    /**
+     * Connect the controller to the CPU: the registers holding MSR and the
+     * cycle counter driving the timers.
+     */
+    public void connect(Registers registers, LongSupplier clock) {
+        this.registers = registers;
+        this.clock = clock;
+    }
+
+    /**
+     * @return current cycle of the CPU
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Charge the time a device transfer (DMA, disk) kept the CPU waiting;
+     * called on the CPU thread, added to the cycle counter after the
+     * instruction.
+     */
+    public void chargeCycles(long cycles) {
+        charged += cycles;
+    }
+
+    /**
+     * @return the cycles charged since the last call
+     */
+    public long takeCharged() {
+        long cycles = charged;
+        charged = 0;
+        return cycles;
+    }
+
+    /**
+     * Raise a line from any thread. It becomes pending at the next
+     * instruction boundary and wakes up a CPU waiting in awaitInterrupt().
+     */
+    public synchronized void raise(int line) {
+        raised |= 1 << line;
+        notifyAll();
+    }
+
+    /**
+     * Raise a line on the CPU thread (the timers), pending at once.
+     */
+    void raiseNow(int line) {
+        pending |= 1 << line;
+    }
+
+    /**
+     * @return true if lines were raised since the last latchRaised()
+     */
+    public boolean hasRaised() {
+        return raised != 0;
+    }
+
+    /**
+     * Make the lines raised from other threads pending; called by the CPU
+     * before an instruction.
+     *
+     * @return the lines latched
+     */
+    public synchronized int latchRaised() {
+        int lines = raised;
+        raised = 0;
+        pending |= lines;
+        if (lines != 0 && latchObserver != null) {
+            latchObserver.accept(lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Watch the lines latched by latchRaised(), for recording.
+     */
+    public void setLatchObserver(IntConsumer latchObserver) {
+        this.latchObserver = latchObserver;
+    }
+
+    public IntConsumer getLatchObserver() {
+        return latchObserver;
+    }
+
+    /**
+     * Take back the lines raised from other threads that are not latched
+     * yet, without latching them.
+     *
+     * @return the lines
+     */
+    public synchronized int takeRaised() {
+        int lines = raised;
+        raised = 0;
+        return lines;
+    }
+
+    /**
+     * Block the calling (CPU) thread until a line is raised or pending,
+     * wakeUp() is called or the thread is interrupted (the interrupt flag
+     * is kept).
+     */
+    public synchronized void awaitInterrupt() {
+        try {
+            while (raised == 0 && !isPending() && !woken) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        woken = false;
+    }
+
+    /**
+     * End the current or next awaitInterrupt(), e.g. to stop a run.
+     */
+    public synchronized void wakeUp() {
+        woken = true;
+        notifyAll();
+    }
+
+    public int getPendingLines() {
+        return pending;
+    }
+
+    public void setPendingLines(int pending) {
+        this.pending = pending;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+
+    public void setMask(int mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * @return true if an unmasked line is pending
+     */
+    public boolean isPending() {
+        return (pending & mask) != 0;
+    }
+
+    /**
+     * Take the lowest pending unmasked line for delivery.
+     *
+     * @return the line, or -1 if none is pending
+     */
+    public int acknowledge() {
+        int lines = pending & mask;
+        if (lines == 0) {
+            return -1;
+        }
+        cause = Integer.numberOfTrailingZeros(lines);
+        pending &= ~(1 << cause);
+        delivered++;
+        return cause;
+    }
+
+    /**
+     * @return true (once) if the current instruction must not be
+     *         interrupted
+     */
+    public boolean takeShadow() {
+        if (shadow) {
+            shadow = false;
+            return true;
+        }
+        return false;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return number of values saveTo() writes: pending, mask, cause,
+     *         shadow and interval, next tick and ticks of every timer
+     */
+    public int getStateSize() {
+        return 4 + 3 * timers.length;
+    }
+
+    /**
+     * Save the state of the controller and its timers, e.g. to step back.
+     * Lines raised by other threads and not latched yet are not part of it.
+     */
+    public void saveTo(long[] state, int off) {
+        state[off] = pending;
+        state[off + 1] = mask;
+        state[off + 2] = cause;
+        state[off + 3] = shadow ? 1 : 0;
+        for (int i = 0; i < timers.length; i++) {
+            timers[i].saveTo(state, off + 4 + 3 * i);
+        }
+    }
+
+    /**
+     * Put back a state saved with saveTo().
+     */
+    public void loadFrom(long[] state, int off) {
+        pending = (int) state[off];
+        mask = (int) state[off + 1];
+        cause = (int) state[off + 2];
+        shadow = state[off + 3] != 0;
+        for (int i = 0; i < timers.length; i++) {
+            timers[i].loadFrom(state, off + 4 + 3 * i);
+        }
+        reschedule();
+    }
+
+    /**
+     * @return the first cycle at which a timer fires, Long.MAX_VALUE if
+     *         none is running
+     */
+    public long getNextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * Fire the timers that are due at the given cycle.
+     */
+    public void advanceTo(long cycle) {
+        for (IntervalTimer timer : timers) {
+            timer.fireIfDue(cycle);
+        }
+        reschedule();
+    }
+
+    public void addTimer(IntervalTimer timer) {
+        timers = Arrays.copyOf(timers, timers.length + 1);
+        timers[timers.length - 1] = timer;
+        reschedule();
+    }
+
+    /**
+     * Recompute the next deadline after a timer was reprogrammed.
+     */
+    public void reschedule() {
+        long next = Long.MAX_VALUE;
+        for (IntervalTimer timer : timers) {
+            next = Math.min(next, timer.getNextFire());
+        }
+        nextDeadline = next;
+    }
+
+    @Override
+    public int read() {
+        return cause;
+    }
+
+    @Override
+    public void write(int word) {
+        int line = word & 0x1F;
+        switch ((word >>> 12) & 0xF) {
+        case ENABLE:
+            setMSR(registers.getMSR() | Const.MSR_INTERRUPT_ENABLE);
+            shadow = true;
+            break;
+        case DISABLE:
+            setMSR(registers.getMSR() & ~Const.MSR_INTERRUPT_ENABLE);
+            break;
+        case MASK:
+            mask &= ~(1 << line);
+            break;
+        case UNMASK:
+            mask |= 1 << line;
+            break;
+        case RETURN:
+            setMSR(mcu.fetchFromMemory(Const.INTERRUPT_MSR_LOCATION));
+            shadow = true;
+            break;
+        default:
+            break;
+        }
+    }
+
+    @Override
+    public int status() {
+        return isPending() ? STATUS_READY : 0;
+    }
+
+    private void setMSR(int msr) {
+        if (registers != null) {
+            registers.setMSR(msr);
+        }
+    }
+}
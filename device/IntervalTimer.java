@@ -0,0 +1,106 @@
+package device;
+
+/**
+ * Programmable interval timer (DevId TIMER).<br/>
+ * Counts CPU cycles, not wall clock time, so a run with a timer is as
+ * deterministic as one without. OUT sets the interval in cycles and
+ * restarts the timer, 0 stops it; every interval it raises its interrupt
+ * line. IN returns the number of ticks so far (low 16 bits).
+ */
+public class IntervalTimer implements Device {
+
+    private final InterruptController interrupts;
+    private final int line;
+
+    private long interval;
+    private long nextFire = Long.MAX_VALUE;
+    private long ticks;
+
+    public IntervalTimer(InterruptController interrupts, int line) {
+        this.interrupts = interrupts;
+        this.line = line;
+        interrupts.addTimer(this);
+    }
+
+    /**
+     * Start the timer with the given interval, or stop it with 0.
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+        this.nextFire = interval > 0 ? interrupts.now() + interval : Long.MAX_VALUE;
+        interrupts.reschedule();
+    }
+
+    /**
+     * Start the timer with the first tick after the given number of
+     * cycles, e.g. to restore a snapshot.
+     */
+    public void restart(long interval, long cyclesToNextTick) {
+        this.interval = interval;
+        this.nextFire = interval > 0 ? interrupts.now() + cyclesToNextTick : Long.MAX_VALUE;
+        interrupts.reschedule();
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getNextFire() {
+        return nextFire;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public void setTicks(long ticks) {
+        this.ticks = ticks;
+    }
+
+    /**
+     * Save interval, next tick and ticks into state[off .. off + 2].
+     */
+    void saveTo(long[] state, int off) {
+        state[off] = interval;
+        state[off + 1] = nextFire;
+        state[off + 2] = ticks;
+    }
+
+    /**
+     * Put back a state saved with saveTo(); the caller reschedules.
+     */
+    void loadFrom(long[] state, int off) {
+        interval = state[off];
+        nextFire = state[off + 1];
+        ticks = state[off + 2];
+    }
+
+    /**
+     * Raise the interrupt if the timer is due. Missed ticks (the CPU idled
+     * past several deadlines) are counted but raise one interrupt.
+     */
+    void fireIfDue(long cycle) {
+        if (cycle < nextFire) {
+            return;
+        }
+        long missed = (cycle - nextFire) / interval;
+        ticks += missed + 1;
+        nextFire += (missed + 1) * interval;
+        interrupts.raiseNow(line);
+    }
+
+    @Override
+    public int read() {
+        return (int) (ticks & 0xFFFF);
+    }
+
+    @Override
+    public void write(int word) {
+        setInterval(word & 0xFFFF);
+    }
+
+    @Override
+    public int status() {
+        return interval > 0 ? STATUS_READY : 0;
+    }
+}
@@ -0,0 +1,237 @@
+package device;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Keyboard device for IN.<br/>
+ * Typed or fed characters wait in a growable char ring buffer until a
+ * program reads them, one character per IN. Input can be fed in bulk from a
+ * String, a file or any Reader (stdin for instance, on a feeder thread).
+ * When the queue is empty the thread running the CPU can wait in
+ * awaitInput() until something is fed instead of re-executing IN.
+ */
+public class Keyboard implements Device {
+
+    public static final int INITIAL_CAPACITY = 256;
+    private static final int CHUNK = 8192;
+
+    private char[] queue = new char[INITIAL_CAPACITY];
+    private int head;
+    private int count;
+    // no more input will be fed
+    private boolean closed;
+    private boolean woken;
+    // raised when input arrives in an empty queue
+    private InterruptController interrupts;
+    private int line;
+
+    /**
+     * @return next character, or -1 if the queue is empty
+     */
+    @Override
+    public synchronized int read() {
+        if (count == 0) {
+            return -1;
+        }
+        char c = queue[head];
+        head = (head + 1) & (queue.length - 1);
+        count--;
+        return c;
+    }
+
+    /**
+     * Raise the given interrupt line whenever input arrives in an empty
+     * queue.
+     */
+    public synchronized void connectInterrupt(InterruptController interrupts, int line) {
+        this.interrupts = interrupts;
+        this.line = line;
+    }
+
+    /**
+     * The keyboard has no output; OUT to it is ignored.
+     */
+    @Override
+    public void write(int word) {
+    }
+
+    @Override
+    public synchronized int status() {
+        if (count > 0) {
+            return STATUS_READY;
+        }
+        return closed ? STATUS_END : 0;
+    }
+
+    public synchronized void feed(CharSequence text) {
+        ensureCapacity(count + text.length());
+        int mask = queue.length - 1;
+        for (int i = 0; i < text.length(); i++) {
+            queue[(head + count + i) & mask] = text.charAt(i);
+        }
+        added(text.length());
+    }
+
+    public synchronized void feed(char[] buf, int off, int len) {
+        ensureCapacity(count + len);
+        int tail = (head + count) & (queue.length - 1);
+        int first = Math.min(len, queue.length - tail);
+        System.arraycopy(buf, off, queue, tail, first);
+        System.arraycopy(buf, off + first, queue, 0, len - first);
+        added(len);
+    }
+
+    /**
+     * Feed everything the reader returns until end of stream.
+     *
+     * @return number of characters fed
+     */
+    public long feed(Reader reader) throws IOException {
+        char[] chunk = new char[CHUNK];
+        long total = 0;
+        int n;
+        while ((n = reader.read(chunk)) >= 0) {
+            feed(chunk, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Feed the whole content of a text file.
+     */
+    public long feedFile(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return feed(reader);
+        }
+    }
+
+    /**
+     * Feed from standard input on a daemon thread, as it is typed. The
+     * keyboard is closed when stdin ends.
+     */
+    public Thread feedFromStdin() {
+        Thread feeder = new Thread(() -> {
+            try {
+                feed(new InputStreamReader(System.in));
+            } catch (IOException e) {
+                System.out.println("Keyboard input stopped: " + e.getMessage());
+            } finally {
+                close();
+            }
+        }, "keyboard-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+        return feeder;
+    }
+
+    /**
+     * Wait until there is input, the keyboard is closed, wakeUp() is called
+     * or the thread is interrupted (the interrupt flag is kept).
+     *
+     * @return false if the queue is empty and no more input will come
+     */
+    @Override
+    public synchronized boolean awaitInput() {
+        try {
+            while (count == 0 && !closed && !woken) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+        if (woken) {
+            woken = false;
+            return true;
+        }
+        return count > 0;
+    }
+
+    /**
+     * End the current or next awaitInput() without input, e.g. to stop a
+     * run; the caller tells why.
+     */
+    public synchronized void wakeUp() {
+        woken = true;
+        notifyAll();
+    }
+
+    /**
+     * No more input will be fed; wakes up a waiting CPU.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Put a character that was read back in front of the queue, e.g. when
+     * the CPU steps back over the IN that read it. No interrupt is raised.
+     */
+    public synchronized void unread(char c) {
+        ensureCapacity(count + 1);
+        head = (head - 1) & (queue.length - 1);
+        queue[head] = c;
+        count++;
+        if (count == 1) {
+            notifyAll();
+        }
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * @return number of characters waiting to be read
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the characters waiting to be read, without consuming them
+     */
+    public synchronized String contents() {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(queue[(head + i) & (queue.length - 1)]);
+        }
+        return sb.toString();
+    }
+
+    private void added(int n) {
+        count += n;
+        if (count == n && n > 0) {
+            // the queue was empty, a CPU may be waiting
+            notifyAll();
+            if (interrupts != null) {
+                interrupts.raise(line);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= queue.length) {
+            return;
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        char[] grown = new char[size];
+        int first = Math.min(count, queue.length - head);
+        System.arraycopy(queue, head, grown, 0, first);
+        System.arraycopy(queue, 0, grown, first, count - first);
+        queue = grown;
+        head = 0;
+    }
+}
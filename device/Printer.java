@@ -0,0 +1,118 @@
+package device;
+
+import java.io.IOException;
+
+/**
+ * Printer device for OUT.<br/>
+ * Characters are collected in a fixed-size ring buffer and handed to the
+ * sink in batches, so printing costs O(1) per character no matter how long
+ * the output gets. When the ring buffer is full the CPU flushes it before
+ * going on, i.e. a slow sink slows the program down (backpressure) instead
+ * of output piling up in memory. Whoever shows the output (the front panel
+ * after each step, or the end of a run) calls flush() for the rest.<br/>
+ * The printer is written by the thread running the CPU; flush() may be
+ * called from another thread.
+ */
+public class Printer implements Device {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final char[] ring;
+    private final int mask;
+    // characters ever printed / ever handed to the sink
+    private long head;
+    private long tail;
+
+    private PrinterSink sink;
+    private long charactersPrinted;
+
+    public Printer() {
+        this(PrinterSink.STDOUT, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            size of the ring buffer, rounded up to a power of two
+     */
+    public Printer(PrinterSink sink, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.ring = new char[size];
+        this.mask = size - 1;
+        this.sink = sink;
+    }
+
+    public PrinterSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Change the sink; what is still buffered goes to the old one first.
+     */
+    public synchronized void setSink(PrinterSink sink) {
+        flush();
+        this.sink = sink;
+    }
+
+    public long getCharactersPrinted() {
+        return charactersPrinted;
+    }
+
+    /**
+     * Print one character (the low 16 bits of the word).
+     */
+    @Override
+    public synchronized void write(int word) {
+        if (head - tail == ring.length) {
+            flush();
+        }
+        ring[(int) (head & mask)] = (char) word;
+        head++;
+        charactersPrinted++;
+    }
+
+    /**
+     * The printer has no input.
+     */
+    @Override
+    public int read() {
+        return -1;
+    }
+
+    /**
+     * Always ready: a full buffer is flushed by write() itself.
+     */
+    @Override
+    public int status() {
+        return STATUS_READY;
+    }
+
+    /**
+     * @return number of characters waiting to be flushed
+     */
+    public synchronized int getBuffered() {
+        return (int) (head - tail);
+    }
+
+    /**
+     * Hand everything buffered to the sink, at most two write() calls.
+     */
+    public synchronized void flush() {
+        if (head == tail) {
+            return;
+        }
+        try {
+            int start = (int) (tail & mask);
+            int length = (int) (head - tail);
+            int first = Math.min(length, ring.length - start);
+            sink.write(ring, start, first);
+            if (first < length) {
+                sink.write(ring, 0, length - first);
+            }
+            sink.flush();
+        } catch (IOException e) {
+            // a broken sink must not stop the program; the batch is lost
+            System.out.println("Printer error: " + e.getMessage());
+        }
+        tail = head;
+    }
+}
@@ -0,0 +1,43 @@
+package device;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Where the printer sends its output. The printer hands over a whole batch
+ * of characters at a time, never one character per call.
+ */
+public interface PrinterSink {
+
+    /**
+     * Print len characters of buf starting at off.
+     */
+    void write(char[] buf, int off, int len) throws IOException;
+
+    /**
+     * Push anything the sink buffers itself to its destination.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Print to standard output.
+     */
+    PrinterSink STDOUT = new PrinterSink() {
+        @Override
+        public void write(char[] buf, int off, int len) {
+            System.out.append(CharBuffer.wrap(buf, off, len));
+        }
+
+        @Override
+        public void flush() {
+            System.out.flush();
+        }
+    };
+
+    /**
+     * Drop all output.
+     */
+    PrinterSink NONE = (buf, off, len) -> {
+    };
+}
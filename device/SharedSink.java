@@ -0,0 +1,39 @@
+package device;
+
+import java.io.IOException;
+
+/**
+ * Printer sink shared by several printers that print on their own threads,
+ * e.g. a machine and its forks. Every call to the underlying sink is made
+ * holding its lock, so batches from different printers do not interleave
+ * inside a write and the sink itself needs no locking.
+ */
+public class SharedSink implements PrinterSink {
+
+    private final PrinterSink sink;
+
+    private SharedSink(PrinterSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return sink wrapped for sharing, or sink itself if it already is
+     */
+    public static PrinterSink of(PrinterSink sink) {
+        return sink instanceof SharedSink ? sink : new SharedSink(sink);
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) throws IOException {
+        synchronized (sink) {
+            sink.write(buf, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (sink) {
+            sink.flush();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package device;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Terminal on a localhost TCP port: what a client sends is fed to the
+ * keyboard, what the program prints is sent to the client.<br/>
+ * One selector thread does all socket work with non-blocking channels. It
+ * wakes up at least every flushMillis to pull the printer's buffer, so the
+ * program's output goes out in batches rather than one packet per OUT.
+ * Output also still goes to the printer's previous sink.<br/>
+ * One client at a time is connected; further connections are closed at
+ * once. Without a client, output to the socket is dropped. With a client
+ * that does not keep up, the printing thread sends the queued output
+ * itself, waiting as long as it takes, once OUTPUT_LIMIT bytes are queued
+ * (the same backpressure as the printer's own ring buffer). It does not
+ * wait for the selector thread, which may itself be waiting for the
+ * printer.<br/>
+ * Text is UTF-8 both ways.
+ */
+public class TerminalServer implements PrinterSink, Closeable {
+
+    public static final int DEFAULT_FLUSH_MILLIS = 10;
+    public static final int OUTPUT_LIMIT = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final Keyboard keyboard;
+    private final Printer printer;
+    private final PrinterSink echo;
+    private final int flushMillis;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+
+    // touched only by the selector thread
+    private final ByteBuffer input = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final CharBuffer decoded = CharBuffer.allocate(READ_BUFFER_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private SelectionKey clientKey;
+
+    // guarded by this: the client, and encoded output not sent yet, in
+    // write mode
+    private SocketChannel client;
+    private ByteBuffer output = ByteBuffer.allocate(OUTPUT_LIMIT);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private boolean closeKeyboardOnDisconnect;
+    private volatile boolean closed;
+
+    private long bytesIn;
+    private long bytesOut;
+    private long connections;
+
+    public TerminalServer(Keyboard keyboard, Printer printer, int port) throws IOException {
+        this(keyboard, printer, port, DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * Listen on the loopback address and take over the printer's sink.
+     *
+     * @param port
+     *            0 for any free port, see getPort()
+     * @param flushMillis
+     *            longest time printed output waits before it is sent
+     */
+    public TerminalServer(Keyboard keyboard, Printer printer, int port, int flushMillis) throws IOException {
+        this.keyboard = keyboard;
+        this.printer = printer;
+        this.flushMillis = flushMillis;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.echo = printer.getSink();
+        printer.setSink(this);
+        this.thread = new Thread(this::serve, "terminal-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the port the terminal listens on
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Close the keyboard when the client disconnects, so a program reading
+     * to the end of its input finishes instead of waiting for more.
+     */
+    public void setCloseKeyboardOnDisconnect(boolean closeKeyboardOnDisconnect) {
+        this.closeKeyboardOnDisconnect = closeKeyboardOnDisconnect;
+    }
+
+    public synchronized boolean isConnected() {
+        return client != null;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public synchronized long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getConnections() {
+        return connections;
+    }
+
+    /**
+     * Printer sink: queue the batch for the client.
+     */
+    @Override
+    public void write(char[] buf, int off, int len) throws IOException {
+        echo.write(buf, off, len);
+        CharBuffer chars = CharBuffer.wrap(buf, off, len);
+        synchronized (this) {
+            while (encoder.encode(chars, output, false) == CoderResult.OVERFLOW) {
+                if (client == null) {
+                    output.clear();
+                } else if (Thread.currentThread() == thread) {
+                    // the selector thread pulling the printer cannot wait for
+                    // itself; the overshoot is at most one printer buffer
+                    ByteBuffer larger = ByteBuffer.allocate(output.capacity() * 2);
+                    output.flip();
+                    larger.put(output);
+                    output = larger;
+                } else if (drain() == 0) {
+                    try {
+                        // the client is not reading
+                        wait(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while the terminal client was busy");
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        echo.flush();
+        selector.wakeup();
+    }
+
+    /**
+     * Stop listening, disconnect the client and give the printer its old
+     * sink back.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        printer.flush();
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        printer.setSink(echo);
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select(flushMillis);
+                printer.flush();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        receive(key);
+                    }
+                }
+                send();
+            }
+            // the last output, best effort
+            send();
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("Terminal stopped: " + e.getMessage());
+        } finally {
+            disconnect();
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        if (clientKey != null) {
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        clientKey = channel.register(selector, SelectionKey.OP_READ);
+        connections++;
+        synchronized (this) {
+            output.clear();
+            client = channel;
+        }
+    }
+
+    private void receive(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        int n;
+        try {
+            n = channel.read(input);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            disconnect();
+            return;
+        }
+        bytesIn += n;
+        input.flip();
+        decoder.decode(input, decoded, false);
+        input.compact();
+        decoded.flip();
+        // one feed per read, so the keyboard is locked once per packet
+        keyboard.feed(decoded.array(), decoded.position(), decoded.remaining());
+        decoded.clear();
+    }
+
+    private void send() {
+        if (clientKey == null) {
+            return;
+        }
+        synchronized (this) {
+            if (output.position() == 0) {
+                return;
+            }
+            drain();
+            if (client == null) {
+                disconnect();
+                return;
+            }
+            if (output.position() > 0) {
+                clientKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                clientKey.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Write as much queued output as the socket takes without blocking.
+     * Called with the lock held.
+     *
+     * @return number of bytes written
+     */
+    private int drain() {
+        output.flip();
+        int n = 0;
+        try {
+            n = client.write(output);
+            bytesOut += n;
+            output.compact();
+        } catch (IOException e) {
+            // the selector thread notices the disconnect
+            client = null;
+            output.clear();
+        }
+        return n;
+    }
+
+    private void disconnect() {
+        if (clientKey == null) {
+            return;
+        }
+        clientKey.cancel();
+        try {
+            clientKey.channel().close();
+        } catch (IOException e) {
+            // gone already
+        }
+        clientKey = null;
+        synchronized (this) {
+            client = null;
+            output.clear();
+        }
+        if (closeKeyboardOnDisconnect) {
+            keyboard.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package front;
+
+import java.util.BitSet;
+
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import memory.MCU;
+import memory.Test;
+
+/**
+ * Cache view: one row per slot of every cache level, read straight from
+ * the caches' slot arrays when the table paints. A Swing timer drains the
+ * slots each cache marked as changed and fires row updates for those rows
+ * only, one event per run of consecutive rows, so a refresh costs the same
+ * for 16 lines or hundreds.<br/>
+ * The levels are taken from the MCU on every refresh, so a cache replaced
+ * by a snapshot restore or a different cache size is picked up.
+ */
+public class CacheTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int REFRESH_MILLIS = 100;
+
+    private static final String[] COLUMNS = { "Level", "Slot", "Tag", "Data" };
+
+    // event dispatch thread only
+    private MCU mcu;
+    private Test[] levels = new Test[0];
+    // first row of each level
+    private int[] firstRows = new int[0];
+    private int rows;
+    private final BitSet changed = new BitSet();
+    private final Timer timer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    /**
+     * Show the caches of another MCU, e.g. after IPL or Reset.
+     */
+    public void setMCU(MCU mcu) {
+        this.mcu = mcu;
+        setLevels(mcu == null ? new Test[0] : levelsOf(mcu));
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * @return the cache levels of the MCU, closest to the CPU first
+     */
+    private static Test[] levelsOf(MCU mcu) {
+        return new Test[] { mcu.getCache() };
+    }
+
+    private void setLevels(Test[] levels) {
+        this.levels = levels;
+        this.firstRows = new int[levels.length];
+        int row = 0;
+        for (int level = 0; level < levels.length; level++) {
+            firstRows[level] = row;
+            row += levels[level].getCapacity();
+            // the whole level is shown now, forget its old marks
+            levels[level].drainChangedSlots(new BitSet());
+        }
+        this.rows = row;
+        fireTableDataChanged();
+    }
+
+    private void refresh() {
+        if (mcu == null) {
+            return;
+        }
+        Test[] current = levelsOf(mcu);
+        if (current.length != levels.length) {
+            setLevels(current);
+            return;
+        }
+        for (int level = 0; level < levels.length; level++) {
+            if (current[level] != levels[level]) {
+                setLevels(current);
+                return;
+            }
+        }
+        for (int level = 0; level < levels.length; level++) {
+            changed.clear();
+            levels[level].drainChangedSlots(changed);
+            int base = firstRows[level];
+            for (int first = changed.nextSetBit(0); first >= 0; first = changed.nextSetBit(first)) {
+                int end = changed.nextClearBit(first);
+                fireTableRowsUpdated(base + first, base + end - 1);
+                first = end;
+            }
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int level = levels.length - 1;
+        while (firstRows[level] > row) {
+            level--;
+        }
+        int slot = row - firstRows[level];
+        switch (column) {
+            case 0:
+                return "L" + (level + 1);
+            case 1:
+                return slot;
+            default:
+                int tag = levels[level].getSlotTag(slot);
+                if (tag == Test.EMPTY_SLOT) {
+                    return "";
+                }
+                return column == 2 ? tag : levels[level].getSlotData(slot);
+        }
+    }
+}
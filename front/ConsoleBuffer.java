@@ -0,0 +1,161 @@
+package front;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * Bounded, batched output for the front panel console.<br/>
+ * append() may be called on any thread; the text is queued and a Swing
+ * timer drains the queue every FLUSH_MILLIS into a single append on the
+ * text area. The text area keeps at most maxLines lines: the oldest lines
+ * are cut off the top after each append, so a long trace costs the same
+ * per line as a short one.<br/>
+ * Trace text, queued with appendTrace(), is bounded the same way: when the
+ * event dispatch thread falls behind, the oldest queued trace lines are
+ * dropped and a "[n lines dropped]" line shows where. Printer output and
+ * messages are never dropped; the printer holds the engine back itself.
+ */
+public class ConsoleBuffer {
+
+    public static final int FLUSH_MILLIS = 50;
+    public static final int DEFAULT_MAX_LINES = 2000;
+
+    private final JTextArea console;
+    private final int maxLines;
+    private static final class Entry {
+        final String text;
+        // trace lines in the text, 0 if it must not be dropped
+        final int traceLines;
+
+        Entry(String text, int traceLines) {
+            this.text = text;
+            this.traceLines = traceLines;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTraceLines = new AtomicInteger();
+    private final AtomicInteger droppedLines = new AtomicInteger();
+    private final Timer timer = new Timer(FLUSH_MILLIS, e -> flush());
+
+    public ConsoleBuffer(JTextArea console) {
+        this(console, DEFAULT_MAX_LINES);
+    }
+
+    public ConsoleBuffer(JTextArea console, int maxLines) {
+        this.console = console;
+        this.maxLines = maxLines;
+        timer.start();
+    }
+
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Queue text for the console; any thread. The text is never dropped.
+     */
+    public void append(String text) {
+        pending.add(new Entry(text, 0));
+    }
+
+    /**
+     * Queue trace text for the console; any thread. The oldest queued trace
+     * lines are dropped once more than maxLines are waiting.
+     */
+    public void appendTrace(String text) {
+        int lines = Math.max(1, countLines(text));
+        pending.add(new Entry(text, lines));
+        if (pendingTraceLines.addAndGet(lines) <= maxLines) {
+            return;
+        }
+        for (Entry entry : pending) {
+            if (pendingTraceLines.get() <= maxLines) {
+                break;
+            }
+            // the event dispatch thread may take the entry first
+            if (entry.traceLines > 0 && pending.remove(entry)) {
+                pendingTraceLines.addAndGet(-entry.traceLines);
+                droppedLines.addAndGet(entry.traceLines);
+            }
+        }
+    }
+
+    private static int countLines(String text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Queue a line for the console; any thread.
+     */
+    public void println(String line) {
+        append(line + "\n");
+    }
+
+    /**
+     * Drop the queued text and empty the console; event dispatch thread.
+     */
+    public void clear() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            pendingTraceLines.addAndGet(-entry.traceLines);
+        }
+        droppedLines.set(0);
+        console.setText("");
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Move the queued text to the console now; event dispatch thread.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        // the dropped lines were older than anything still queued
+        int dropped = droppedLines.getAndSet(0);
+        if (dropped > 0) {
+            batch.append("[").append(dropped).append(" lines dropped]\n");
+        }
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            pendingTraceLines.addAndGet(-entry.traceLines);
+            batch.append(entry.text);
+        }
+        console.append(batch.toString());
+        trim();
+    }
+
+    /**
+     * Cut the oldest lines so at most maxLines remain.
+     */
+    private void trim() {
+        Document document = console.getDocument();
+        Element root = document.getDefaultRootElement();
+        int excess = root.getElementCount() - maxLines;
+        if (excess <= 0) {
+            return;
+        }
+        try {
+            document.remove(0, root.getElement(excess).getStartOffset());
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
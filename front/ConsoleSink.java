@@ -0,0 +1,21 @@
+package front;
+
+import device.PrinterSink;
+
+/**
+ * Printer sink that appends to the front panel console. Each batch becomes
+ * one entry in the console's queue.
+ */
+public class ConsoleSink implements PrinterSink {
+
+    private final ConsoleBuffer console;
+
+    public ConsoleSink(ConsoleBuffer console) {
+        this.console = console;
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        console.append(new String(buf, off, len));
+    }
+}
@@ -0,0 +1,189 @@
+package front;
+
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.GridLayout;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+import main.CPU;
+import memory.MCU;
+import util.Const;
+import util.Disassembler;
+
+/**
+ * Live performance figures: instructions per second, cache hit rate, the
+ * most executed opcodes and the hottest addresses.<br/>
+ * Nothing is pushed from the simulation: a Swing timer samples the plain
+ * counters the CPU and MCU keep anyway, SAMPLE_MILLIS apart, and rates are
+ * the differences between two samples. The engine thread pays nothing for
+ * the dashboard, shown or not.
+ */
+public class DashboardPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int SAMPLE_MILLIS = 250;
+    public static final int TOP = 10;
+
+    private final JLabel rateLabel = new JLabel();
+    private final JLabel instructionsLabel = new JLabel();
+    private final JLabel hitRateLabel = new JLabel();
+    private final JLabel totalHitRateLabel = new JLabel();
+    private final DefaultTableModel opcodeModel = new DefaultTableModel(new Object[]{"Opcode", "Count", "%"}, TOP);
+    private final DefaultTableModel pcModel = new DefaultTableModel(new Object[]{"Address", "Count", "Instruction"}, TOP);
+    private final Timer timer = new Timer(SAMPLE_MILLIS, e -> sample());
+
+    private final long[] opcodeCounts = new long[64];
+    private final long[] pcCounts = new long[Const.MEMORY_WORDS_BOUND_EXPANDED];
+    private final int[] top = new int[TOP];
+
+    // event dispatch thread only
+    private CPU cpu;
+    private long lastNanos;
+    private long lastInstructions;
+    private long lastHits;
+    private long lastMisses;
+
+    public DashboardPanel() {
+        super(new BorderLayout());
+        JPanel figures = new JPanel(new GridLayout(2, 4, 8, 4));
+        figures.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        figures.add(new JLabel("Instructions/s"));
+        figures.add(rateLabel);
+        figures.add(new JLabel("Cache hit rate"));
+        figures.add(hitRateLabel);
+        figures.add(new JLabel("Instructions"));
+        figures.add(instructionsLabel);
+        figures.add(new JLabel("Hit rate since IPL"));
+        figures.add(totalHitRateLabel);
+        add(figures, BorderLayout.NORTH);
+
+        JPanel tables = new JPanel(new GridLayout(1, 2, 8, 0));
+        tables.add(createTable("Top opcodes", opcodeModel));
+        tables.add(createTable("Hottest addresses", pcModel));
+        add(tables, BorderLayout.CENTER);
+    }
+
+    private static JScrollPane createTable(String title, DefaultTableModel model) {
+        JTable table = new JTable(model);
+        table.setEnabled(false);
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setBorder(BorderFactory.createTitledBorder(title));
+        return scrollPane;
+    }
+
+    /**
+     * Sample another machine, e.g. after IPL or Reset.
+     */
+    public void setCPU(CPU cpu) {
+        this.cpu = cpu;
+        this.lastNanos = System.nanoTime();
+        this.lastInstructions = cpu == null ? 0 : cpu.getInstructionCount();
+        this.lastHits = cpu == null ? 0 : cpu.getMCU().getCacheHits();
+        this.lastMisses = cpu == null ? 0 : cpu.getMCU().getCacheMisses();
+        sample();
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    private void sample() {
+        if (cpu == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long instructions = cpu.getInstructionCount();
+        MCU mcu = cpu.getMCU();
+        long hits = mcu.getCacheHits();
+        long misses = mcu.getCacheMisses();
+
+        double seconds = (now - lastNanos) / 1e9;
+        rateLabel.setText(String.format("%,.0f", seconds > 0 ? (instructions - lastInstructions) / seconds : 0));
+        instructionsLabel.setText(String.format("%,d", instructions));
+        hitRateLabel.setText(percent(hits - lastHits, misses - lastMisses));
+        totalHitRateLabel.setText(percent(hits, misses) + String.format(" (%,d hits, %,d misses)", hits, misses));
+        lastNanos = now;
+        lastInstructions = instructions;
+        lastHits = hits;
+        lastMisses = misses;
+        if (!isShowing()) {
+            // the tables are the only part that costs anything
+            return;
+        }
+
+        cpu.copyOpcodeCounts(opcodeCounts);
+        long fetched = 0;
+        for (long count : opcodeCounts) {
+            fetched += count;
+        }
+        int n = top(opcodeCounts, opcodeCounts.length);
+        for (int row = 0; row < TOP; row++) {
+            if (row < n) {
+                String mnemonic = Disassembler.mnemonic(top[row] << 10);
+                opcodeModel.setValueAt(String.format("%02o %s", top[row], mnemonic == null ? "?" : mnemonic), row, 0);
+                opcodeModel.setValueAt(opcodeCounts[top[row]], row, 1);
+                opcodeModel.setValueAt(String.format("%.1f", 100.0 * opcodeCounts[top[row]] / fetched), row, 2);
+            } else {
+                clearRow(opcodeModel, row);
+            }
+        }
+
+        cpu.copyPCCounts(pcCounts);
+        n = top(pcCounts, mcu.getCurrentMemorySize());
+        for (int row = 0; row < TOP; row++) {
+            if (row < n) {
+                pcModel.setValueAt(String.format("%06o", top[row]), row, 0);
+                pcModel.setValueAt(pcCounts[top[row]], row, 1);
+                pcModel.setValueAt(Disassembler.disassemble(mcu.fetchFromMemory(top[row])), row, 2);
+            } else {
+                clearRow(pcModel, row);
+            }
+        }
+    }
+
+    private static String percent(long hits, long misses) {
+        long accesses = hits + misses;
+        return accesses == 0 ? "-" : String.format("%.1f%%", 100.0 * hits / accesses);
+    }
+
+    private static void clearRow(DefaultTableModel model, int row) {
+        for (int column = 0; column < model.getColumnCount(); column++) {
+            if (model.getValueAt(row, column) != null) {
+                model.setValueAt(null, row, column);
+            }
+        }
+    }
+
+    /**
+     * Fill top with the indexes of the largest nonzero counts, largest
+     * first.
+     *
+     * @return how many were found, at most TOP
+     */
+    private int top(long[] counts, int length) {
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            long count = counts[i];
+            if (count == 0 || (n == TOP && count <= counts[top[n - 1]])) {
+                continue;
+            }
+            int j = n < TOP ? n++ : n - 1;
+            while (j > 0 && counts[top[j - 1]] < count) {
+                top[j] = top[j - 1];
+                j--;
+            }
+            top[j] = i;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,73 @@
+package front;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import memory.MCU;
+import memory.MemoryWriteListener;
+import util.Const;
+import util.Disassembler;
+
+/**
+ * Disassembled text per address, made when an address is first shown and
+ * kept until the word is written. The engine thread only clears the entry
+ * of a written word; the text is never made during a run unless the
+ * address is on screen or the instruction trace executes it.<br/>
+ * An entry remembers the word it was made from, so a write racing with a
+ * repaint costs one more disassembly instead of showing stale text.
+ */
+public class DisassemblyCache implements MemoryWriteListener {
+
+    private static final class Entry {
+        final int word;
+        final String text;
+
+        Entry(int word, String text) {
+            this.word = word;
+            this.text = text;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(
+            Const.MEMORY_WORDS_BOUND_EXPANDED);
+    private MCU mcu;
+
+    /**
+     * Disassemble another MCU's memory, e.g. after IPL or Reset, and stop
+     * listening to the old one.
+     */
+    public void setMCU(MCU mcu) {
+        if (this.mcu != null) {
+            this.mcu.removeWriteListener(this);
+        }
+        this.mcu = mcu;
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+        if (mcu != null) {
+            mcu.addWriteListener(this);
+        }
+    }
+
+    /**
+     * Called on the thread that writes memory.
+     */
+    @Override
+    public void onWrite(int address, int oldValue, int newValue) {
+        if (entries.get(address) != null) {
+            entries.set(address, null);
+        }
+    }
+
+    /**
+     * @return assembler text of the word at address
+     */
+    public String get(int address) {
+        int word = mcu.fetchFromMemory(address) & 0xFFFF;
+        Entry entry = entries.get(address);
+        if (entry == null || entry.word != word) {
+            entry = new Entry(word, Disassembler.disassemble(word));
+            entries.set(address, entry);
+        }
+        return entry.text;
+    }
+}
@@ -2,6 +2,8 @@ package front;
 
 // Standard imports
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.awt.Component;
 import java.awt.FlowLayout;
 import java.awt.Insets;
@@ -13,24 +15,29 @@ import java.awt.event.KeyEvent;
 import java.awt.event.ActionEvent;
 import javax.swing.*;
 import javax.swing.border.Border;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.text.BadLocationException;
 import javax.swing.filechooser.FileSystemView;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import util.Const;
+import util.SourceMap;
 import java.util.*;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.util.function.BiConsumer;
 
 // Custom imports from the rest of the project
+import device.Disk;
 import cpu.Registers;
 import util.StringUtil;
-import memory.Test;
-import alu.instruction.AbstractInstruction;
-import util.MachineFaultException;
 import memory.MCU;
+import memory.Watchpoints;
+import main.CPU;
+import main.Breakpoints;
+import main.ExecutionRecorder;
+import main.Program1;
+import main.SpeedGovernor;
+import main.UndoLog;
 
 public class FrontPanel
 {
@@ -45,17 +52,49 @@ public class FrontPanel
     private JLabel labelMAR, labelMBR, labelMSR, labelIR, labelPC, labelCC, labelMFR;
     private JTextField textFieldMAR, textFieldMBR, textFieldMSR, textFieldIR, textFieldPC, textFieldCC, textFieldMFR;
     private JButton btnLoadMAR, btnLoadMBR, btnLoadMSR, btnLoadIR, btnLoadPC, btnLoadCC, btnLoadMFR;
-    private JButton btnSingleStep, btnInitialProgramLoad, btnReset, btnHalt, btnStore, btnRun;
+    private JButton btnSingleStep, btnInitialProgramLoad, btnReset, btnHalt, btnStore, btnRun, btnRecord, btnStepBack, btnBreak;
 
     private Registers cpuRegisters;
     private MCU memoryControlUnit;
+    private CPU cpu;
+    // runs the CPU off the event dispatch thread; everything that changes
+    // the machine after IPL goes through it
+    private SimulationEngine engine;
+    // non-null while the execution is being recorded to REPLAY_LOG
+    private volatile ExecutionRecorder recorder;
+    // lets SS be undone with the Back button
+    private UndoLog undoLog;
+    // non-null while DISK_IMAGE is attached to the device bus
+    private Disk disk;
+    // a fault dialog is open; further faults only go to the console (EDT)
+    private boolean faultDialogShowing;
     private JTextArea consoleOutput;
+    private ConsoleBuffer consoleBuffer;
     private JScrollPane scrollPaneOutput;
+    private InstructionTrace.Level traceLevel = InstructionTrace.Level.SUMMARY;
+    private boolean traceToFile;
+    // instructions per second for runs, SpeedGovernor.UNLIMITED for full speed
+    private double speed = SpeedGovernor.UNLIMITED;
+    private JLabel speedLabel;
+    // numbers read by a Program 1 run, shown while it runs
+    private JProgressBar program1Progress;
+    // set while Program 1 runs; the other program1 fields are written
+    // before it, on the engine thread
+    private volatile boolean program1Active;
+    private int program1Target;
+    private long program1StartNanos;
+    private long program1StartCount;
+    // non-null while every instruction is traced; engine thread only
+    private InstructionTrace trace;
 
     private JPanel addressPanel, valuePanel, buttonPanel, printerPanel, cachePanel, operationPanel, programPanel1, programPanel2;
     private JLabel labelPrinter, labelCache, generalPurposeReg, indexReg, addressLabel;
     private JTextArea consoleInput;
     private JTable cacheTable;
+    private CacheTableModel cacheModel;
+    private MemoryTableModel memoryModel;
+    private JTable memoryTable;
+    private DashboardPanel dashboard;
     private JScrollPane scrollPaneCache;
     private JPanel keyboardPanel;
     private JButton btnRunSingleStep;
@@ -75,6 +114,14 @@ public class FrontPanel
     private static final Color BUTTON_COLOR = Color.DARK_GRAY;
     private static final Dimension BUTTON_DIMENSION = new Dimension(80, 24);
     private static final Dimension TEXTFIELD_DIMENSION = new Dimension(160, 24);
+    private static final String REPLAY_LOG = "replay.log";
+    private static final String DISK_IMAGE = "disk.img";
+    private static final String DMA_FILE = "dma.dat";
+    // status and data words of the keyboard, printer and card reader, the
+    // last six words of the 2048 word memory (above every program)
+    private static final int MMIO_BASE = 03772;
+    private static final String TRACE_LOG = "trace.log";
+    private static final String LISTING = "listing.txt";
 
     private void initComponents() {
         this.mainFrame = new JFrame();
@@ -221,15 +268,20 @@ public class FrontPanel
         JPanel consolePanel = new JPanel(new BorderLayout());
         this.consoleOutput = new JTextArea();
         this.consoleOutput.setEditable(true);
+        this.consoleBuffer = new ConsoleBuffer(this.consoleOutput);
         JScrollPane scrollPaneConsole = new JScrollPane(this.consoleOutput);
         consolePanel.add(scrollPaneConsole, BorderLayout.CENTER);
 
         consoleOutput.addKeyListener(new KeyAdapter() {
             public void keyTyped(KeyEvent e) {
+                final boolean enter = e.getKeyChar() == '\n';
                 SwingUtilities.invokeLater(new Runnable() {
                     public void run() {
                         try {
                             int caretPosition = consoleOutput.getCaretPosition();
+                            if (enter) {
+                                feedConsoleLine(consoleOutput.getLineOfOffset(caretPosition) - 1);
+                            }
                             int lineOffset = consoleOutput.getLineStartOffset(consoleOutput.getLineOfOffset(caretPosition));
                             if (lineOffset == caretPosition && (caretPosition == 0 || consoleOutput.getText().charAt(caretPosition - 1) == '\n')) {
                                 consoleOutput.getDocument().insertString(caretPosition, "> ", null);
@@ -243,6 +295,18 @@ public class FrontPanel
         });
 
         tabbedPane.addTab("Console", null, consolePanel, "Console Output/Input");
+
+        // only the visible rows of the memory table are ever read
+        this.memoryModel = new MemoryTableModel();
+        JTable memoryTable = this.memoryTable = new JTable(this.memoryModel);
+        memoryTable.setFont(new java.awt.Font(java.awt.Font.MONOSPACED, java.awt.Font.PLAIN, 12));
+        memoryTable.setDefaultRenderer(Object.class, new MemoryTableModel.Renderer(this.memoryModel));
+        memoryTable.setFillsViewportHeight(true);
+        tabbedPane.addTab("Memory", null, new JScrollPane(memoryTable),
+                "Memory, current PC and recently written words highlighted");
+
+        this.dashboard = new DashboardPanel();
+        tabbedPane.addTab("Dashboard", null, this.dashboard, "Instructions per second, cache hit rate, opcode mix");
        
         mainFrame.add(tabbedPane, BorderLayout.CENTER);
     }
@@ -257,82 +321,70 @@ public class FrontPanel
         this.btnReset = createButton("Reset", BUTTON_COLOR);
         this.btnHalt = createButton("Halt", BUTTON_COLOR);
         this.btnStore = createButton("Store", BUTTON_COLOR);
+        this.btnRecord = createButton("Record", BUTTON_COLOR);
+        this.btnBreak = createButton("Break", BUTTON_COLOR);
+        this.btnStepBack = createButton("Back", BUTTON_COLOR);
 
         buttonPanel.add(this.btnInitialProgramLoad);
         buttonPanel.add(this.btnRun);
         buttonPanel.add(this.btnSingleStep);
+        buttonPanel.add(this.btnStepBack);
         buttonPanel.add(this.btnReset);
         buttonPanel.add(this.btnHalt);
         buttonPanel.add(this.btnStore);
+        buttonPanel.add(this.btnRecord);
+        buttonPanel.add(this.btnBreak);
         JButton btnProg1 = createButton("Prog1", BUTTON_COLOR);
         buttonPanel.add(btnProg1);
+        this.program1Progress = new JProgressBar(0, Program1.COUNT);
+        this.program1Progress.setStringPainted(true);
+        this.program1Progress.setVisible(false);
+        buttonPanel.add(this.program1Progress);
+
+        JComboBox<InstructionTrace.Level> traceBox = new JComboBox<>(InstructionTrace.Level.values());
+        traceBox.setSelectedItem(this.traceLevel);
+        traceBox.setToolTipText("Trace: off, run summary and single steps, or every instruction");
+        JCheckBox traceFileBox = new JCheckBox("Trace to " + TRACE_LOG);
+        traceFileBox.setBackground(BACKGROUND_COLOR);
+        ActionListener traceListener = e -> {
+            this.traceLevel = (InstructionTrace.Level) traceBox.getSelectedItem();
+            this.traceToFile = traceFileBox.isSelected();
+            final InstructionTrace.Level level = this.traceLevel;
+            final boolean toFile = this.traceToFile;
+            engine.execute(() -> startTrace(level, toFile));
+        };
+        traceBox.addActionListener(traceListener);
+        traceFileBox.addActionListener(traceListener);
+        buttonPanel.add(new JLabel("Trace"));
+        buttonPanel.add(traceBox);
+        buttonPanel.add(traceFileBox);
+
+        JComboBox<String> speedBox = new JComboBox<>(
+                new String[]{"Unlimited", "1", "10", "100", "1000", "10000", "100000"});
+        speedBox.setEditable(true);
+        speedBox.setToolTipText("Instructions per second for Run");
+        speedBox.addActionListener(e -> {
+            String text = String.valueOf(speedBox.getSelectedItem()).trim();
+            try {
+                this.speed = text.equalsIgnoreCase("Unlimited") ? SpeedGovernor.UNLIMITED : Double.parseDouble(text);
+                engine.setSpeed(this.speed);
+                showSpeed(0);
+            } catch (IllegalArgumentException ex) {
+                printConsole("Invalid speed: " + text);
+            }
+        });
+        this.speedLabel = new JLabel();
+        buttonPanel.add(new JLabel("Speed"));
+        buttonPanel.add(speedBox);
+        buttonPanel.add(this.speedLabel);
+        showSpeed(0);
 
         mainFrame.getContentPane().add(buttonPanel, BorderLayout.SOUTH);
 
         this.btnSingleStep.setEnabled(false);
+        this.btnStepBack.setEnabled(false);
         this.btnRun.setEnabled(false);
-        btnProg1.addActionListener(new ActionListener() {
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        new Thread(() -> {
-            try {
-                int[] values = new int[20];
-                for (int i = 0; i < 20; i++) {
-                    String input = JOptionPane.showInputDialog(
-                        null,
-                        "Enter number " + (i + 1) + " of 20:",
-                        "Program 1 - Input",
-                        JOptionPane.QUESTION_MESSAGE
-                    );
-                    if (input == null) return;
-                    values[i] = Integer.parseInt(input.trim());
-                    FrontPanel.this.printConsole("Number " + (i+1) + ": " + values[i]);
-                }
-
-                FrontPanel.this.printConsole("--- Numbers entered ---");
-                for (int i = 0; i < 20; i++) {
-                    FrontPanel.this.printConsole(values[i] + "");
-                }
-
-                String targetStr = JOptionPane.showInputDialog(
-                    null,
-                    "Enter target number to search:",
-                    "Program 1 - Search",
-                    JOptionPane.QUESTION_MESSAGE
-                );
-                if (targetStr == null) return;
-                int target = Integer.parseInt(targetStr.trim());
-
-                boolean exactFound = false;
-                int closest = values[0];
-                int minDiff = Math.abs(values[0] - target);
-
-                for (int i = 0; i < 20; i++) {
-                    if (values[i] == target) {
-                        exactFound = true;
-                        break;
-                    }
-                    int diff = Math.abs(values[i] - target);
-                    if (diff < minDiff) {
-                        minDiff = diff;
-                        closest = values[i];
-                    }
-                }
-
-                FrontPanel.this.printConsole("--- Result ---");
-                FrontPanel.this.printConsole("Target: " + target);
-                if (exactFound) {
-                    FrontPanel.this.printConsole("Found exact match: " + target);
-                } else {
-                    FrontPanel.this.printConsole("Closest value: " + closest);
-                }
-
-            } catch (NumberFormatException ex) {
-                FrontPanel.this.printConsole("Error: please enter valid numbers only");
-            }
-        }).start();
-    }
-});
+        btnProg1.addActionListener(e -> runProgram1());
         // Add mouse listener for the Store button
         this.btnStore.addMouseListener(new MouseAdapter() {
             @Override
@@ -342,54 +394,60 @@ public class FrontPanel
                     String valueStr = currentTextField.getText(); // Get value from the selected text field
                     try {
                         int value = Integer.parseInt(valueStr, 8); // Convert from octal to decimal
-                        switch (currentTextField.getName()) {
+                        String name = currentTextField.getName();
+                        BiConsumer<Registers, Integer> setter;
+                        switch (name) {
                             case "R0":
-                                cpuRegisters.setR0(value);
+                                setter = Registers::setR0;
                                 break;
                             case "R1":
-                                cpuRegisters.setR1(value);
+                                setter = Registers::setR1;
                                 break;
                             case "R2":
-                                cpuRegisters.setR2(value);
+                                setter = Registers::setR2;
                                 break;
                             case "R3":
-                                cpuRegisters.setR3(value);
+                                setter = Registers::setR3;
                                 break;
                             case "X1":
-                                cpuRegisters.setX1(value);
+                                setter = Registers::setX1;
                                 break;
                             case "X2":
-                                cpuRegisters.setX2(value);
+                                setter = Registers::setX2;
                                 break;
                             case "X3":
-                                cpuRegisters.setX3(value);
+                                setter = Registers::setX3;
                                 break;
                             case "MAR":
-                                cpuRegisters.setMAR(value);
+                                setter = Registers::setMAR;
                                 break;
                             case "MBR":
-                                cpuRegisters.setMBR(value);
+                                setter = Registers::setMBR;
                                 break;
                             case "MSR":
-                                cpuRegisters.setMSR(value);
+                                setter = Registers::setMSR;
                                 break;
                             case "IR":
-                                cpuRegisters.setIR(value);
+                                setter = Registers::setIR;
                                 break;
                             case "PC":
-                                cpuRegisters.setPC(value);
+                                setter = Registers::setPC;
                                 break;
                             case "CC":
-                                cpuRegisters.setCC(value);
+                                setter = Registers::setCC;
                                 break;
                             case "MFR":
-                                cpuRegisters.setMFR(value);
+                                setter = Registers::setMFR;
                                 break;
                             default:
                                 printConsole("Invalid register selected.");
                                 return;
                         }
-                        printConsole("Stored value " + value + " in " + currentTextField.getName());
+                        engine.execute(() -> {
+                            setter.accept(cpuRegisters, value);
+                            recordRegisterEdit(name, value);
+                        });
+                        printConsole("Stored value " + value + " in " + name);
                     } catch (NumberFormatException ex) {
                         printConsole("Invalid input. Please enter a valid octal value.");
                     }
@@ -399,6 +457,271 @@ public class FrontPanel
             }
         });
 
+        this.btnBreak.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String command = JOptionPane.showInputDialog(FrontPanel.this.mainFrame,
+                        "b ADDR [condition]  breakpoint, e.g. b 20 R0 == 0 && X1 > 3\n"
+                                + "r ADDR / w ADDR / rw ADDR  watch reads / writes\n"
+                                + "d ADDR  delete,  clear  delete all,  empty  list\n"
+                                + "Addresses and values are octal.",
+                        "Breakpoints", JOptionPane.PLAIN_MESSAGE);
+                if (command != null) {
+                    engine.execute(() -> breakCommand(command.trim()));
+                }
+            }
+        });
+
+        this.btnRecord.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (recorder == null) {
+                    engine.execute(FrontPanel.this::startRecording);
+                } else {
+                    engine.execute(FrontPanel.this::stopRecording);
+                }
+            }
+        });
+    }
+
+    private void startRecording() {
+        try {
+            this.recorder = new ExecutionRecorder(this.cpu, REPLAY_LOG);
+            SwingUtilities.invokeLater(() -> this.btnRecord.setText("Stop"));
+            printConsole("Recording execution to " + REPLAY_LOG);
+        } catch (IOException ex) {
+            printConsole("Failed to start recording: " + ex.getMessage());
+        }
+    }
+
+    private void stopRecording() {
+        if (this.recorder == null) {
+            return;
+        }
+        try {
+            this.recorder.close();
+            printConsole("Recording saved to " + REPLAY_LOG + ", replay with: java main.ExecutionReplayer " + REPLAY_LOG);
+        } catch (IOException ex) {
+            printConsole("Failed to save recording: " + ex.getMessage());
+        }
+        this.recorder = null;
+        SwingUtilities.invokeLater(() -> this.btnRecord.setText("Record"));
+    }
+
+    private void attachDisk() {
+        closeDisk();
+        try {
+            this.disk = new Disk(new File(DISK_IMAGE).toPath());
+            this.disk.attachTo(this.memoryControlUnit.getDevices());
+            this.disk.connectClock(this.memoryControlUnit.getInterrupts());
+            printConsole("Disk " + DISK_IMAGE + " attached (" + this.disk.getBlocks() + " blocks)");
+        } catch (IOException ex) {
+            printConsole("Failed to attach disk: " + ex.getMessage());
+        }
+    }
+
+    private void attachDmaFile() {
+        try {
+            this.memoryControlUnit.getDma().attachFile(new File(DMA_FILE).toPath());
+            printConsole("DMA file " + DMA_FILE + " attached");
+        } catch (IOException ex) {
+            printConsole("Failed to attach DMA file: " + ex.getMessage());
+        }
+    }
+
+    private void closeDmaFile() {
+        try {
+            this.memoryControlUnit.getDma().detachFile();
+        } catch (IOException ex) {
+            printConsole("Failed to close DMA file: " + ex.getMessage());
+        }
+    }
+
+    private void closeDisk() {
+        if (this.disk == null) {
+            return;
+        }
+        try {
+            printConsole(this.disk.getStatistics());
+            this.disk.close();
+        } catch (IOException ex) {
+            printConsole("Failed to save disk: " + ex.getMessage());
+        }
+        this.disk = null;
+    }
+
+    /**
+     * Trace every instruction at Level.INSTRUCTION, to TRACE_LOG or the
+     * console; engine thread.
+     */
+    private void startTrace(InstructionTrace.Level level, boolean toFile) {
+        stopTrace();
+        if (level != InstructionTrace.Level.INSTRUCTION) {
+            return;
+        }
+        try {
+            this.trace = toFile ? new InstructionTrace(new File(TRACE_LOG).toPath(), this.memoryModel.getDisassembly())
+                    : new InstructionTrace(this.consoleBuffer, this.memoryModel.getDisassembly());
+            this.cpu.addStepListener(this.trace);
+            printConsole("Tracing every instruction to " + (toFile ? TRACE_LOG : "the console"));
+        } catch (IOException ex) {
+            printConsole("Failed to start trace: " + ex.getMessage());
+        }
+    }
+
+    private void stopTrace() {
+        if (this.trace == null) {
+            return;
+        }
+        this.cpu.removeStepListener(this.trace);
+        try {
+            this.trace.close();
+            if (this.trace.isToFile()) {
+                printConsole(this.trace.getLines() + " instructions traced to " + TRACE_LOG);
+            }
+        } catch (IOException ex) {
+            printConsole("Failed to save trace: " + ex.getMessage());
+        }
+        this.trace = null;
+    }
+
+    private void flushTrace() {
+        if (this.trace == null) {
+            return;
+        }
+        try {
+            this.trace.flush();
+        } catch (IOException ex) {
+            printConsole("Failed to write trace: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Set, delete or list breakpoints and watchpoints; engine thread.
+     */
+    private void breakCommand(String command) {
+        Breakpoints breakpoints = this.cpu.getBreakpoints();
+        Watchpoints watchpoints = this.memoryControlUnit.getWatchpoints();
+        String[] words = command.split("\\s+", 3);
+        try {
+            switch (words[0].toLowerCase()) {
+                case "":
+                    printConsole("Breakpoints: " + breakpoints.describe() + ", watchpoints: " + watchpoints.describe());
+                    return;
+                case "clear":
+                    breakpoints.clear();
+                    watchpoints.clear();
+                    printConsole("Breakpoints and watchpoints cleared");
+                    return;
+                default:
+                    break;
+            }
+            if (words.length < 2) {
+                printConsole("Missing address: " + command);
+                return;
+            }
+            int address = Integer.parseInt(words[1], 8);
+            switch (words[0].toLowerCase()) {
+                case "b":
+                    breakpoints.set(address, words.length > 2 ? words[2] : null);
+                    break;
+                case "r":
+                    watchpoints.setRead(address, true);
+                    break;
+                case "w":
+                    watchpoints.setWrite(address, true);
+                    break;
+                case "rw":
+                    watchpoints.setRead(address, true);
+                    watchpoints.setWrite(address, true);
+                    break;
+                case "d":
+                    breakpoints.remove(address);
+                    watchpoints.setRead(address, false);
+                    watchpoints.setWrite(address, false);
+                    break;
+                default:
+                    printConsole("Unknown breakpoint command: " + command);
+                    return;
+            }
+            printConsole("Breakpoints: " + breakpoints.describe() + ", watchpoints: " + watchpoints.describe());
+        } catch (IllegalArgumentException ex) {
+            printConsole("Invalid breakpoint command: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Run Program 1 on the machine with its numbers from a batch input file.
+     */
+    private void runProgram1() {
+        if (this.enableStatus != 1) {
+            printConsole("Press IPL before running Program 1.");
+            return;
+        }
+        if (this.engine.isRunning()) {
+            printConsole("Halt before running Program 1.");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser(new File("."));
+        chooser.setDialogTitle("Program 1 input: 20 numbers and a target");
+        chooser.setSelectedFile(new File(Program1.DEFAULT_INPUT));
+        if (chooser.showOpenDialog(this.mainFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File input = chooser.getSelectedFile();
+        this.program1Progress.setValue(0);
+        this.program1Progress.setVisible(true);
+        this.engine.execute(() -> startProgram1(input));
+    }
+
+    /**
+     * Load Program 1 and its input, then start the run; engine thread.
+     */
+    private void startProgram1(File input) {
+        int[] numbers;
+        try {
+            numbers = Program1.parseNumbers(new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8));
+            Program1.start(this.cpu, numbers);
+        } catch (IOException | IllegalArgumentException ex) {
+            printConsole("Program 1: " + ex.getMessage());
+            SwingUtilities.invokeLater(() -> this.program1Progress.setVisible(false));
+            return;
+        }
+        this.program1Target = numbers.length > Program1.COUNT ? numbers[Program1.COUNT] : -1;
+        this.program1StartCount = this.cpu.getInstructionCount();
+        this.program1StartNanos = System.nanoTime();
+        this.program1Active = true;
+        printConsole("Program 1: reading " + Program1.COUNT + " numbers from " + input.getName());
+        this.engine.run();
+    }
+
+    /**
+     * Report a Program 1 run that has stopped; engine thread.
+     */
+    private void finishProgram1() {
+        if (!this.program1Active) {
+            return;
+        }
+        this.program1Active = false;
+        double millis = (System.nanoTime() - this.program1StartNanos) / 1e6;
+        long instructions = this.cpu.getInstructionCount() - this.program1StartCount;
+        if (!Program1.isSearched(this.memoryControlUnit)) {
+            printConsole(String.format("Program 1 stopped after %d of %d numbers",
+                    Program1.numbersRead(this.memoryControlUnit), Program1.COUNT));
+        } else if (this.program1Target >= 0) {
+            int closest = Program1.readClosest(this.memoryControlUnit);
+            printConsole("Target: " + this.program1Target);
+            printConsole(closest == this.program1Target ? "Found exact match: " + closest : "Closest value: " + closest);
+        }
+        printConsole(String.format("Program 1: %d instructions in %.3f ms (%.0f instructions/s)", instructions, millis,
+                millis > 0 ? instructions * 1000 / millis : 0));
+        SwingUtilities.invokeLater(() -> this.program1Progress.setVisible(false));
+    }
+
+    private void recordRegisterEdit(String name, int value) {
+        if (this.recorder != null) {
+            this.recorder.recordRegisterEdit(name, value);
+        }
     }
 
 
@@ -409,12 +732,10 @@ public class FrontPanel
         this.labelCache.setForeground(new Color(204, 255, 204));
 
         this.scrollPaneCache = new JScrollPane();
-        (this.cacheTable = new JTable(16, 2)).setEnabled(false);
+        this.cacheModel = new CacheTableModel();
+        (this.cacheTable = new JTable(this.cacheModel)).setEnabled(false);
 
         this.scrollPaneCache.setViewportView(this.cacheTable);
-        this.cacheTable.setModel(new DefaultTableModel(
-                new Object[][]{new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2], new Object[2]},
-                new String[]{"Tag", "Data"}));
         this.cachePanel.setLayout(new BoxLayout(this.cachePanel, BoxLayout.Y_AXIS));
         this.cachePanel.add(this.labelCache);
         this.cachePanel.add(this.scrollPaneCache);
@@ -458,10 +779,36 @@ public class FrontPanel
     }
 
     private void initCPU() {
+        if (this.engine != null) {
+            // the old machine is not touched after this
+            this.engine.shutdown();
+            this.engine = null;
+        }
+        stopRecording(); // a recording cannot span a reset
+        stopTrace();
+        closeDisk();
+        if (this.memoryControlUnit != null) {
+            closeDmaFile();
+        }
         this.cpuRegisters = new Registers(); // Initialize the registers.
         this.memoryControlUnit = new MCU(); // Initialize the memory control unit.
+        this.memoryControlUnit.getPrinter().setSink(new ConsoleSink(this.consoleBuffer));
+        this.cpu = new CPU(this.cpuRegisters, this.memoryControlUnit);
+        // Run stops in front of a HLT, SS executes it
+        this.cpu.setStopAtHalt(true);
+        this.memoryModel.setMCU(this.memoryControlUnit);
+        this.memoryModel.setSourceMap(null);
+        this.cacheModel.setMCU(this.memoryControlUnit);
+        this.dashboard.setCPU(this.cpu);
+        this.cpu.setFaultListener(this::notifyMachineFault);
+        this.undoLog = new UndoLog(this.cpu);
         this.cpuRegisters.setPC(addressList.isEmpty() ? 10 : addressList.get(0));
         this.programCounter = 0;
+        this.engine = new SimulationEngine(this.cpu, this::showSnapshot);
+        this.engine.setSpeed(this.speed);
+        final InstructionTrace.Level level = this.traceLevel;
+        final boolean toFile = this.traceToFile;
+        this.engine.execute(() -> startTrace(level, toFile));
     }
 
     private MouseAdapter createRegisterMouseListener(JTextField textField, BiConsumer<Registers, Integer> registerSetter) {
@@ -473,7 +820,10 @@ public class FrontPanel
                     String valueStr = textField.getText();
                     int value = Integer.parseInt(valueStr, 8); // Try parsing as octal
                     if (valueStr.equals(Integer.toString(value, 8))) {
-                        registerSetter.accept(FrontPanel.this.cpuRegisters, value);
+                        FrontPanel.this.engine.execute(() -> {
+                            registerSetter.accept(FrontPanel.this.cpuRegisters, value);
+                            FrontPanel.this.recordRegisterEdit(textField.getName(), value);
+                        });
                         String message = textField.getName() + " is set to: " + valueStr;
                         System.out.println(message);
                         FrontPanel.this.printConsole(message);
@@ -495,67 +845,46 @@ public class FrontPanel
         this.btnSingleStep.addActionListener(new ActionListener() {
     @Override
     public void actionPerformed(ActionEvent e) {
-        try {
-            int pc = FrontPanel.this.cpuRegisters.getPC();
-
-            FrontPanel.this.cpuRegisters.setMAR(pc);
-
-            int word = FrontPanel.this.memoryControlUnit.fetchFromCache(pc);
-            FrontPanel.this.cpuRegisters.setMBR(word);
-            FrontPanel.this.cpuRegisters.setIR(word);
-
-            final String instruction = String.format("%16s",
-                    Integer.toBinaryString(word & 0xFFFF)).replace(' ', '0');
-
-            FrontPanel.this.printConsole(String.format("PC: %06o, instruction: %s", pc, instruction));
-
-            FrontPanel.this.runInstruction(instruction, FrontPanel.this.cpuRegisters, FrontPanel.this.memoryControlUnit);
-
-            FrontPanel.this.refreshRegistersPanel();
-
-            // helpful debug (remove later)
-            FrontPanel.this.printConsole(String.format("After SS: PC=%06o, X2=%06o",
-                    FrontPanel.this.cpuRegisters.getPC(),
-                    FrontPanel.this.cpuRegisters.getX2() & 0xFFFF));
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            FrontPanel.this.printConsole("SS error: " + ex.getMessage());
-        }
+        // printed by showSnapshot() once the engine has executed it
+        FrontPanel.this.engine.step();
     }
    });
+        this.btnStepBack.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (FrontPanel.this.recorder != null) {
+                    FrontPanel.this.printConsole("Stop recording before stepping back.");
+                    return;
+                }
+                if (FrontPanel.this.engine.isRunning()) {
+                    FrontPanel.this.printConsole("Halt before stepping back.");
+                    return;
+                }
+                FrontPanel.this.engine.execute(() -> {
+                    if (FrontPanel.this.undoLog.stepBack()) {
+                        FrontPanel.this.printConsole(String.format("Stepped back: PC=%06o, instructions=%d",
+                                FrontPanel.this.cpuRegisters.getPC(), FrontPanel.this.cpu.getInstructionCount()));
+                    } else {
+                        FrontPanel.this.printConsole("No earlier state to step back to.");
+                    }
+                });
+            }
+        });
 this.btnRun.addActionListener(new ActionListener() {
     @Override
     public void actionPerformed(ActionEvent e) {
-        try {
-            for (int steps = 0; steps < 5000; steps++) {
-                int pc = FrontPanel.this.cpuRegisters.getPC();
-
-                int word = FrontPanel.this.memoryControlUnit.fetchFromCache(pc);
-                FrontPanel.this.cpuRegisters.setMAR(pc);
-                FrontPanel.this.cpuRegisters.setMBR(word);
-                FrontPanel.this.cpuRegisters.setIR(word);
-
-                String instruction = String.format("%16s",
-                        Integer.toBinaryString(word & 0xFFFF)).replace(' ', '0');
-
-                FrontPanel.this.printConsole(String.format("PC: %06o, instruction: %s", pc, instruction));
-
-                if ((word & 0xFFFF) == 0) {
-                    FrontPanel.this.printConsole("HLT reached. Stopping.");
-                    break;
-                }
-
-                FrontPanel.this.runInstruction(instruction, FrontPanel.this.cpuRegisters, FrontPanel.this.memoryControlUnit);
-                FrontPanel.this.refreshRegistersPanel();
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            FrontPanel.this.printConsole("Run error: " + ex.getMessage());
-        }
+        // no step limit: runs until HLT, Halt or the end of the input
+        FrontPanel.this.engine.run();
     }
  });
 
+        this.btnHalt.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                FrontPanel.this.engine.halt();
+            }
+        });
+
         this.btnReset.addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(final MouseEvent e) {
@@ -574,27 +903,42 @@ this.btnRun.addActionListener(new ActionListener() {
                 try {
                     // Expect load.txt to be in the SAME working directory where you run:  java -cp out front.Main
                     FrontPanel.this.memoryControlUnit.loadProgramFile("load.txt");
+                    FrontPanel.this.loadSourceMap();
                     // Load Program 1 from Const.java into memory
-for (java.util.Map.Entry<String, Integer> entry : util.Const.Pre.entrySet()) {
-    int addr = Integer.parseInt(entry.getKey());
-    memoryControlUnit.storeIntoCache(addr, entry.getValue());
-}
-for (java.util.Map.Entry<String, Integer> entry : util.Const.PG1_20.entrySet()) {
-    int addr = Integer.parseInt(entry.getKey());
-    memoryControlUnit.storeIntoCache(addr, entry.getValue());
-}
+Program1.load(memoryControlUnit);
+// the print routines are in the legacy encoding too
 for (java.util.Map.Entry<String, Integer> entry : util.Const.PG_P.entrySet()) {
     int addr = Integer.parseInt(entry.getKey());
-    memoryControlUnit.storeIntoCache(addr, entry.getValue());
+    memoryControlUnit.storeIntoCache(addr, util.LegacyCode.translate(entry.getValue()));
 }
 for (java.util.Map.Entry<String, Integer> entry : util.Const.PG_P1.entrySet()) {
     int addr = Integer.parseInt(entry.getKey());
-    memoryControlUnit.storeIntoCache(addr, entry.getValue());
+    memoryControlUnit.storeIntoCache(addr, util.LegacyCode.translate(entry.getValue()));
 }
 for (java.util.Map.Entry<String, Integer> entry : util.Const.PG_P2.entrySet()) {
+    int addr = Integer.parseInt(entry.getKey());
+    memoryControlUnit.storeIntoCache(addr, util.LegacyCode.translate(entry.getValue()));
+}
+// Trap table (location 0 -> 1500) and the TRAP routines
+for (java.util.Map.Entry<String, Integer> entry : util.Const.TB.entrySet()) {
     int addr = Integer.parseInt(entry.getKey());
     memoryControlUnit.storeIntoCache(addr, entry.getValue());
 }
+// Program 2 reads its paragraph from the card reader
+if (new File("paragraph.txt").isFile()) {
+    memoryControlUnit.getCardReader().load(new File("paragraph.txt").toPath());
+}
+// Attach the disk if there is an image next to load.txt
+if (new File(DISK_IMAGE).isFile()) {
+    FrontPanel.this.attachDisk();
+}
+// and the DMA controller's host file if there is one
+if (new File(DMA_FILE).isFile()) {
+    FrontPanel.this.attachDmaFile();
+}
+// Programs can also do character I/O with LDR/STR
+memoryControlUnit.mapDevices(MMIO_BASE, util.Const.DevId.KEYBOARD.getValue(),
+        util.Const.DevId.PRINTER.getValue(), util.Const.DevId.CARD.getValue());
 // Set PC to start of Program 1
 FrontPanel.this.cpuRegisters.setPC(Integer.parseInt("000016", 8));
 
@@ -614,6 +958,7 @@ FrontPanel.this.cpuRegisters.setPC(Integer.parseInt("000016", 8));
                     FrontPanel.this.setEnableForPanel(FrontPanel.this.programPanel1, true);
                     FrontPanel.this.setEnableForPanel(FrontPanel.this.programPanel2, true);
                     FrontPanel.this.btnSingleStep.setEnabled(true);
+                    FrontPanel.this.btnStepBack.setEnabled(true);
                     FrontPanel.this.btnRun.setEnabled(true);
                     FrontPanel.access$41(FrontPanel.this, 1);
                 }
@@ -646,62 +991,74 @@ FrontPanel.this.cpuRegisters.setPC(Integer.parseInt("000016", 8));
         };
     }
 
-    private void refreshCacheTable() {
-        int row = 0;
-        for (final Test.CacheLine line : this.memoryControlUnit.getCache().getCacheLines()) {
-            this.cacheTable.setValueAt(line.getTag(), row, 0);
-            this.cacheTable.setValueAt(line.getData(), row, 1);
-            row++;
+    /**
+     * Show the state published by the engine; runs on the event dispatch
+     * thread.
+     */
+    private void showSnapshot(SimulationEngine.Snapshot snapshot) {
+        refreshRegistersPanel(snapshot.getRegisters(), snapshot.getChangedRegisters());
+        if (snapshot.isRunning()) {
+            showSpeed(snapshot.getAchievedRate());
+        }
+        if (this.program1Active) {
+            this.program1Progress.setValue(Program1.numbersRead(this.memoryControlUnit));
+        }
+        switch (snapshot.getEvent()) {
+            case STEPPED:
+                // at Level.INSTRUCTION the trace has printed it
+                if (this.traceLevel == InstructionTrace.Level.SUMMARY) {
+                    printConsole(describeStep(snapshot.getPreviousPC(), snapshot.getRegisters().getIR()));
+                }
+                showPC(snapshot.getRegisters().getPC());
+                break;
+            case STARTED:
+                if (this.traceLevel != InstructionTrace.Level.OFF) {
+                    printConsole(String.format("Running from PC %06o", snapshot.getRegisters().getPC()));
+                }
+                break;
+            case STOPPED:
+                printConsole(snapshot.getMessage());
+                showPC(snapshot.getRegisters().getPC());
+                this.engine.execute(this::flushTrace);
+                this.engine.execute(this::finishProgram1);
+                break;
+            default:
+                break;
+        }
+        if (this.enableStatus == 1) {
+            this.btnRun.setEnabled(!snapshot.isRunning());
+            this.btnSingleStep.setEnabled(!snapshot.isRunning());
+            this.btnStepBack.setEnabled(!snapshot.isRunning());
         }
     }
 
-    private void pushConsoleBuffer() {
-        if (this.memoryControlUnit.getPrinterBuffer() != null
-            && !this.memoryControlUnit.getPrinterBuffer().isEmpty()) {
-        this.consoleOutput.append(this.memoryControlUnit.getPrinterBuffer());
-        this.memoryControlUnit.setPrinterBuffer("");
-    }
-    }
-
+    /**
+     * Show the registers written since the last refresh. Only called while
+     * the engine is idle, e.g. right after IPL.
+     */
     private void refreshRegistersPanel() {
-        refreshPanel(this.reg0Panel);
-        refreshPanel(this.reg1Panel);
-        refreshPanel(this.reg2Panel);
-        refreshPanel(this.reg3Panel);
-        refreshPanel(this.index1Panel);
-        refreshPanel(this.index2Panel);
-        refreshPanel(this.index3Panel);
-        refreshPanel(this.marPanel);
-        refreshPanel(this.mbrPanel);
-        refreshPanel(this.msrPanel);
-        refreshPanel(this.irPanel);
-        refreshPanel(this.pcPanel);
-        refreshPanel(this.ccPanel);
-        refreshPanel(this.mfrPanel);
-    }
-
-    private void refreshPanel(JPanel panel) {
-        for (Component comp : panel.getComponents()) {
-            if (comp instanceof JTextField txt) {
-                String registerName = txt.getName();
-                int regVal = 0;
-
-                switch (registerName) {
-                    case "MAR":
-                        regVal = this.cpuRegisters.getMAR();
-                        break;
-                    case "MBR":
-                        regVal = this.cpuRegisters.getMBR();
-                        break;
-                    case "IR":
-                        regVal = this.cpuRegisters.getIR();
-                        break;
-                    default:
-                        regVal = this.cpuRegisters.getRegistersByName(registerName);
-                        break;
-                }
+        refreshRegistersPanel(this.cpuRegisters, this.cpuRegisters.takeDirty());
+    }
 
-                txt.setText(String.valueOf(regVal));
+    /**
+     * Update the fields of the registers in the changed mask (DIRTY_ bits),
+     * and of those only the ones whose text differs, so a refresh after
+     * thousands of instructions touches a handful of fields.
+     */
+    private void refreshRegistersPanel(Registers registers, int changed) {
+        int[] values = new int[Registers.SAVED_REGISTERS];
+        registers.saveTo(values);
+        for (int i = 0; changed != 0; i++, changed >>>= 1) {
+            if ((changed & 1) == 0) {
+                continue;
+            }
+            JTextField field = this.textFieldMap.get(Registers.NAMES[i]);
+            if (field == null) {
+                continue;
+            }
+            String text = String.valueOf(values[i]);
+            if (!text.equals(field.getText())) {
+                field.setText(text);
             }
         }
     }
@@ -716,22 +1073,90 @@ FrontPanel.this.cpuRegisters.setPC(Integer.parseInt("000016", 8));
                 }
             }
         }
-        consoleOutput.setText("");
+        consoleBuffer.clear();
         instructionMap.clear();
         addressList.clear();
 
         initCPU();
-        refreshCacheTable();
 
         FrontPanel.instructionIndex = 0;
         enableStatus = 0;
         btnSingleStep.setEnabled(false);
+        btnStepBack.setEnabled(false);
         btnRun.setEnabled(false);
         btnInitialProgramLoad.setEnabled(true);
     }
 
+    /**
+     * Send a line typed in the console, without the "> " prompt, to the
+     * keyboard device; a CPU waiting in IN wakes up.
+     */
+    private void feedConsoleLine(int line) throws BadLocationException {
+        if (line < 0) {
+            return;
+        }
+        int start = this.consoleOutput.getLineStartOffset(line);
+        String text = this.consoleOutput.getText(start, this.consoleOutput.getLineEndOffset(line) - start);
+        if (text.startsWith("> ")) {
+            text = text.substring(2);
+        }
+        this.memoryControlUnit.getKeyboard().feed(text.endsWith("\n") ? text : text + "\n");
+    }
+
+    /**
+     * @return e.g. "PC: 000002, instruction: 002100 LDR 0,1,0 ; LOOP: LDR
+     *         0,1,0 (listing.txt:8)"
+     */
+    private String describeStep(int pc, int ir) {
+        String text = String.format("PC: %06o, instruction: %06o %s", pc, ir & 0xFFFF,
+                this.memoryModel.disassemble(pc));
+        SourceMap sourceMap = this.memoryModel.getSourceMap();
+        String source = sourceMap == null ? null : sourceMap.describe(pc);
+        return source == null ? text : text + " ; " + source;
+    }
+
+    /**
+     * Mark the next instruction, with its label and source line, in the
+     * memory view and scroll to it; only after a step or a run, so a fast
+     * run pays nothing for it.
+     */
+    private void showPC(int pc) {
+        this.memoryModel.setPC(pc);
+        if (pc >= 0 && pc < this.memoryModel.getRowCount()) {
+            this.memoryTable.scrollRectToVisible(this.memoryTable.getCellRect(pc, 0, true));
+        }
+    }
+
+    /**
+     * Use the assembler's listing next to load.txt for labels and source
+     * lines, if there is one.
+     */
+    private void loadSourceMap() {
+        File listing = new File(LISTING);
+        if (!listing.isFile()) {
+            return;
+        }
+        try {
+            SourceMap sourceMap = SourceMap.load(listing.toPath());
+            if (!sourceMap.isEmpty()) {
+                this.memoryModel.setSourceMap(sourceMap);
+                printConsole("Source lines and labels from " + LISTING);
+            }
+        } catch (IOException ex) {
+            printConsole("Failed to read " + LISTING + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Show the achieved rate of the current run next to the requested one.
+     */
+    private void showSpeed(double achievedRate) {
+        this.speedLabel.setText(String.format("%.0f / %s ips", achievedRate,
+                this.speed == SpeedGovernor.UNLIMITED ? "max" : String.format("%.0f", this.speed)));
+    }
+
     private void printConsole(final String message) {
-        this.consoleOutput.append(message + "\n");
+        this.consoleBuffer.println(message);
     }
 
     private void setEnableForPanel(final JPanel panel, final boolean flag) {
@@ -748,50 +1173,32 @@ FrontPanel.this.cpuRegisters.setPC(Integer.parseInt("000016", 8));
         }
     }
 
-    private void runInstruction(final String instruction, final Registers registers, final MCU mcu) {
-        final String opCode = instruction.substring(0, 6);
-
-        if (!Const.OPCODE.containsKey(opCode)) {
-            handleMachineFault(Const.FaultCode.ILL_OPRC.getValue(), Const.FaultCode.ILL_OPRC.getMessage());
-            return;
-        }
-
-        try {
-            String className = "alu.instruction." + Const.OPCODE.get(opCode);
-            AbstractInstruction instr = getInstructionInstance(className);
-            instr.execute(instruction, registers, mcu);
-    
-
-            pushConsoleBuffer();
-            refreshCacheTable();
-
-            System.out.println(instr.getExecuteMessage());
-
-        } catch (ReflectiveOperationException | MachineFaultException e) {
-            e.printStackTrace();
-            if (e instanceof MachineFaultException) {
-                handleMachineFault(((MachineFaultException) e).getFaultCode(), e.getMessage());
+    /**
+     * The CPU has already saved PC/MSR and jumped to the fault handler; only
+     * tell the user, later, on the event dispatch thread.
+     */
+    private void notifyMachineFault(final CPU cpu, final int faultCode, final int faultPC) {
+        String message = "Unknown fault";
+        for (Const.FaultCode code : Const.FaultCode.values()) {
+            if (code.getValue() == faultCode) {
+                message = code.getMessage();
             }
         }
-    }
-
-    @SuppressWarnings("deprecation")
-    private AbstractInstruction getInstructionInstance(String className) throws ReflectiveOperationException {
-        return (AbstractInstruction) Class.forName(className).newInstance();
-    }
-
-    private void handleMachineFault(final int faultCode, final String message) {
-        this.cpuRegisters.setMAR(4);
-        this.cpuRegisters.setMBR(this.cpuRegisters.getPC());
-        this.memoryControlUnit.storeIntoCache(this.cpuRegisters.getMAR(), this.cpuRegisters.getMBR());
-        this.cpuRegisters.setMAR(5);
-        this.cpuRegisters.setMBR(this.cpuRegisters.getMSR());
-        this.memoryControlUnit.storeIntoCache(this.cpuRegisters.getMAR(), this.cpuRegisters.getMBR());
-        this.cpuRegisters.setMFR(faultCode);
-
-        JOptionPane.showMessageDialog(null, message, "Fault Code: " + faultCode, JOptionPane.ERROR_MESSAGE);
-
-        this.cpuRegisters.setPC(this.memoryControlUnit.fetchFromCache(1));
+        final String text = String.format("%s at PC %06o", message, faultPC);
+        SwingUtilities.invokeLater(() -> {
+            printConsole("Machine fault " + faultCode + ": " + text);
+            if (this.faultDialogShowing) {
+                return;
+            }
+            // the modal dialog keeps dispatching events, so faults that come
+            // while it is open are printed without opening another one
+            this.faultDialogShowing = true;
+            try {
+                JOptionPane.showMessageDialog(null, text, "Fault Code: " + faultCode, JOptionPane.ERROR_MESSAGE);
+            } finally {
+                this.faultDialogShowing = false;
+            }
+        });
     }
 
     static void access$41(final FrontPanel frontPanel, final int enableFlag) {
@@ -0,0 +1,129 @@
+package front;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import device.FileSink;
+import main.CPU;
+import main.StepListener;
+
+/**
+ * Per-instruction trace: one line per executed instruction, in the same
+ * form as the single step trace, either to the console or spilled to a
+ * file. Runs on the engine thread; the line is built in a reused buffer
+ * from the text kept by the DisassemblyCache, so tracing to a file adds no
+ * garbage per instruction once a loop's instructions are disassembled.
+ */
+public class InstructionTrace implements StepListener, Closeable {
+
+    public enum Level {
+        /** no instruction trace */
+        OFF,
+        /** run start/stop and single steps only */
+        SUMMARY,
+        /** every executed instruction */
+        INSTRUCTION
+    }
+
+    private static final char[] PREFIX = "PC: ".toCharArray();
+    private static final char[] INFIX = ", instruction: ".toCharArray();
+
+    private final ConsoleBuffer console;
+    private final FileSink file;
+    private final DisassemblyCache disassembly;
+    private char[] line = new char[PREFIX.length + 6 + INFIX.length + 6 + 32];
+    private int pc;
+    private String text;
+    private long lines;
+
+    /**
+     * Trace to the console.
+     */
+    public InstructionTrace(ConsoleBuffer console, DisassemblyCache disassembly) {
+        this.console = console;
+        this.file = null;
+        this.disassembly = disassembly;
+    }
+
+    /**
+     * Trace to a file, created or truncated.
+     */
+    public InstructionTrace(Path file, DisassemblyCache disassembly) throws IOException {
+        this.console = null;
+        this.file = new FileSink(file);
+        this.disassembly = disassembly;
+    }
+
+    public boolean isToFile() {
+        return file != null;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    @Override
+    public void beforeStep(CPU cpu) {
+        pc = cpu.getRegisters().getPC();
+        // before the instruction runs, as it may overwrite itself
+        text = disassembly.get(pc);
+    }
+
+    @Override
+    public void afterStep(CPU cpu) {
+        int n = format(pc, cpu.getRegisters().getIR(), text);
+        lines++;
+        if (file != null) {
+            try {
+                file.write(line, 0, n);
+            } catch (IOException e) {
+                throw new IllegalStateException("Trace file: " + e.getMessage(), e);
+            }
+        } else {
+            console.appendTrace(new String(line, 0, n));
+        }
+    }
+
+    /**
+     * "PC: 000016, instruction: 003412 LDR 0,0,12\n"
+     */
+    private int format(int pc, int ir, String text) {
+        int length = PREFIX.length + 6 + INFIX.length + 6 + 1 + text.length() + 1;
+        if (line.length < length) {
+            line = new char[length];
+        }
+        int n = 0;
+        System.arraycopy(PREFIX, 0, line, n, PREFIX.length);
+        n += PREFIX.length;
+        n = octal(pc, n);
+        System.arraycopy(INFIX, 0, line, n, INFIX.length);
+        n += INFIX.length;
+        n = octal(ir, n);
+        line[n++] = ' ';
+        text.getChars(0, text.length(), line, n);
+        n += text.length();
+        line[n++] = '\n';
+        return n;
+    }
+
+    private int octal(int word, int n) {
+        for (int shift = 15; shift >= 0; shift -= 3) {
+            line[n++] = (char) ('0' + ((word >>> shift) & 0x7));
+        }
+        return n;
+    }
+
+    public void flush() throws IOException {
+        if (file != null) {
+            file.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
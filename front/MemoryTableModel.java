@@ -0,0 +1,248 @@
+package front;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+
+import memory.MCU;
+import memory.MemoryWriteListener;
+import util.Const;
+import util.SourceMap;
+
+/**
+ * Memory viewer over the whole address space. Nothing is copied: a cell is
+ * read from the MCU when the table paints it, so only the visible rows
+ * cost anything.<br/>
+ * The MCU's write listener sets a bit per written address (the engine
+ * thread pays one atomic read for a word that is already marked). A Swing
+ * timer drains the bits every REFRESH_MILLIS, fires row updates for the
+ * written rows only, and keeps them highlighted for HIGHLIGHT_REFRESHES
+ * refreshes.<br/>
+ * Instructions come from a DisassemblyCache, and with a SourceMap the
+ * label and source statement of each address are shown as well; like the
+ * other columns they are only made for the rows on screen. The row of the
+ * current PC is marked.
+ */
+public class MemoryTableModel extends AbstractTableModel implements MemoryWriteListener {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int REFRESH_MILLIS = 100;
+    public static final int HIGHLIGHT_REFRESHES = 20;
+
+    private static final String[] COLUMNS = { "Address", "Octal", "Binary", "Instruction", "Label", "Source" };
+    private static final Color RECENT_COLOR = new Color(255, 230, 150);
+    private static final Color PC_COLOR = new Color(170, 210, 255);
+
+    // written by the engine thread, drained on the event dispatch thread
+    private final AtomicLongArray written = new AtomicLongArray(Const.MEMORY_WORDS_BOUND_EXPANDED / 64);
+
+    // event dispatch thread only
+    private MCU mcu;
+    private final DisassemblyCache disassembly = new DisassemblyCache();
+    private SourceMap sourceMap;
+    private int pc = -1;
+    private int rows;
+    private int refreshes;
+    private final int[] writtenAt = new int[Const.MEMORY_WORDS_BOUND_EXPANDED];
+    private final BitSet recent = new BitSet();
+    private final BitSet changed = new BitSet();
+    private final Timer timer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    /**
+     * Show another MCU, e.g. after IPL or Reset, and stop listening to the
+     * old one.
+     */
+    public void setMCU(MCU mcu) {
+        if (this.mcu != null) {
+            this.mcu.removeWriteListener(this);
+        }
+        this.mcu = mcu;
+        disassembly.setMCU(mcu);
+        pc = -1;
+        for (int i = 0; i < written.length(); i++) {
+            written.set(i, 0);
+        }
+        recent.clear();
+        if (mcu != null) {
+            mcu.addWriteListener(this);
+        }
+        rows = mcu == null ? 0 : mcu.getCurrentMemorySize();
+        fireTableDataChanged();
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Show labels and source from the assembler's listing, null for none.
+     */
+    public void setSourceMap(SourceMap sourceMap) {
+        this.sourceMap = sourceMap;
+        fireTableDataChanged();
+    }
+
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    /**
+     * @return the disassembly shown in the table, shared with the trace
+     */
+    public DisassemblyCache getDisassembly() {
+        return disassembly;
+    }
+
+    /**
+     * @return the cached disassembly of the word at address
+     */
+    public String disassemble(int address) {
+        return disassembly.get(address);
+    }
+
+    /**
+     * Mark the row of the current PC.
+     */
+    public void setPC(int pc) {
+        int old = this.pc;
+        this.pc = pc;
+        if (old != pc) {
+            if (old >= 0 && old < rows) {
+                fireTableRowsUpdated(old, old);
+            }
+            if (pc >= 0 && pc < rows) {
+                fireTableRowsUpdated(pc, pc);
+            }
+        }
+    }
+
+    public boolean isPC(int row) {
+        return row == pc;
+    }
+
+    /**
+     * Called on the thread that writes memory.
+     */
+    @Override
+    public void onWrite(int address, int oldValue, int newValue) {
+        int index = address >>> 6;
+        long bit = 1L << address;
+        if ((written.get(index) & bit) == 0) {
+            written.getAndAccumulate(index, bit, (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * @return true if the row was written during the last
+     *         HIGHLIGHT_REFRESHES refreshes
+     */
+    public boolean isRecentlyWritten(int row) {
+        return recent.get(row);
+    }
+
+    private void refresh() {
+        if (mcu == null) {
+            return;
+        }
+        if (mcu.getCurrentMemorySize() != rows) {
+            // memory was expanded
+            rows = mcu.getCurrentMemorySize();
+            fireTableDataChanged();
+        }
+        refreshes++;
+        changed.clear();
+        for (int i = 0; i < written.length(); i++) {
+            if (written.get(i) == 0) {
+                continue;
+            }
+            long bits = written.getAndSet(i, 0);
+            while (bits != 0) {
+                int address = i * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                writtenAt[address] = refreshes;
+                recent.set(address);
+                changed.set(address);
+            }
+        }
+        for (int address = recent.nextSetBit(0); address >= 0; address = recent.nextSetBit(address + 1)) {
+            if (refreshes - writtenAt[address] >= HIGHLIGHT_REFRESHES) {
+                recent.clear(address);
+                changed.set(address);
+            }
+        }
+        // one event per run of consecutive rows
+        for (int first = changed.nextSetBit(0); first >= 0 && first < rows; first = changed.nextSetBit(first)) {
+            int end = Math.min(changed.nextClearBit(first), rows);
+            fireTableRowsUpdated(first, end - 1);
+            first = end;
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return String.format("%06o", row);
+        }
+        int word = mcu.fetchFromMemory(row) & 0xFFFF;
+        switch (column) {
+            case 1:
+                return String.format("%06o", word);
+            case 2:
+                return String.format("%16s", Integer.toBinaryString(word)).replace(' ', '0');
+            case 3:
+                return disassembly.get(row);
+            case 4:
+                return sourceMap == null || sourceMap.getLabel(row) == null ? "" : sourceMap.getLabel(row);
+            default:
+                return sourceMap == null || sourceMap.getStatement(row) == null ? "" : sourceMap.getStatement(row);
+        }
+    }
+
+    /**
+     * Renderer that marks recently written rows.
+     */
+    public static class Renderer extends DefaultTableCellRenderer {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MemoryTableModel model;
+
+        public Renderer(MemoryTableModel model) {
+            this.model = model;
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                boolean hasFocus, int row, int column) {
+            Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            if (!isSelected) {
+                c.setBackground(model.isPC(row) ? PC_COLOR
+                        : model.isRecentlyWritten(row) ? RECENT_COLOR : table.getBackground());
+            }
+            return c;
+        }
+    }
+}
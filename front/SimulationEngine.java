@@ -0,0 +1,355 @@
+package front;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+import cpu.Registers;
+import main.CPU;
+import main.SpeedGovernor;
+
+/**
+ * Runs the CPU on its own thread so the front panel stays responsive.<br/>
+ * The engine thread owns the CPU: run, step and anything else that touches
+ * the machine (register edits, step back, recording) is queued with
+ * execute() and done between instructions. A run has no step limit; it
+ * ends at HLT, a breakpoint or watchpoint, on halt(), when the input has
+ * ended or on an error. While running, the engine publishes a Snapshot
+ * of the registers at most every PUBLISH_INTERVAL_MILLIS; snapshots are handed to the listener
+ * on the event dispatch thread with invokeLater, and one the panel has not
+ * shown yet is replaced by the newer one instead of queueing up.<br/>
+ * Runs are paced by a SpeedGovernor; its target may be changed while
+ * running.
+ */
+public class SimulationEngine {
+
+    public static final int PUBLISH_INTERVAL_MILLIS = 33;
+
+    /**
+     * instructions between checks for commands and snapshot time
+     */
+    static final int BATCH = 1000;
+
+    public enum Event {
+        /** state changed while running, or after a queued task */
+        UPDATE,
+        /** one instruction was executed by step() */
+        STEPPED,
+        /** a run has started */
+        STARTED,
+        /** a run has ended, see Snapshot.getMessage() */
+        STOPPED
+    }
+
+    /**
+     * Copy of the machine state, safe to read on the event dispatch thread.
+     */
+    public static final class Snapshot {
+        private final Event event;
+        private final String message;
+        private final Registers registers;
+        private final int changedRegisters;
+        private final int previousPC;
+        private final long instructionCount;
+        private final double achievedRate;
+        private final double targetRate;
+        private final boolean running;
+
+        Snapshot(Event event, String message, CPU cpu, SpeedGovernor governor, int previousPC, boolean running) {
+            this.event = event;
+            this.message = message;
+            this.registers = new Registers(cpu.getRegisters());
+            this.changedRegisters = cpu.getRegisters().takeDirty();
+            this.previousPC = previousPC;
+            this.instructionCount = cpu.getInstructionCount();
+            this.achievedRate = governor.getAchievedRate();
+            this.targetRate = governor.getTargetRate();
+            this.running = running;
+        }
+
+        /**
+         * this snapshot standing in for an older one that was never shown
+         */
+        private Snapshot(Snapshot newer, Snapshot older) {
+            this.event = newer.event;
+            this.message = newer.message;
+            this.registers = newer.registers;
+            this.changedRegisters = newer.changedRegisters | older.changedRegisters;
+            this.previousPC = newer.previousPC;
+            this.instructionCount = newer.instructionCount;
+            this.achievedRate = newer.achievedRate;
+            this.targetRate = newer.targetRate;
+            this.running = newer.running;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        /**
+         * @return why a run stopped, or null
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        public Registers getRegisters() {
+            return registers;
+        }
+
+        /**
+         * @return Registers.DIRTY_ bits of the registers written since the
+         *         last snapshot the panel was given
+         */
+        public int getChangedRegisters() {
+            return changedRegisters;
+        }
+
+        /**
+         * @return PC of the instruction executed by a step
+         */
+        public int getPreviousPC() {
+            return previousPC;
+        }
+
+        public long getInstructionCount() {
+            return instructionCount;
+        }
+
+        /**
+         * @return instructions per second measured during the run
+         */
+        public double getAchievedRate() {
+            return achievedRate;
+        }
+
+        /**
+         * @return requested instructions per second, SpeedGovernor.UNLIMITED
+         *         for full speed
+         */
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+    }
+
+    private final CPU cpu;
+    private final Consumer<Snapshot> listener;
+    private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+    private final AtomicReference<Snapshot> latest = new AtomicReference<>();
+    private final SpeedGovernor governor = new SpeedGovernor();
+    private final Thread thread;
+
+    private volatile boolean running;
+    private volatile boolean haltRequested;
+    private volatile boolean shutdown;
+
+    /**
+     * @param listener
+     *            called on the event dispatch thread
+     */
+    public SimulationEngine(CPU cpu, Consumer<Snapshot> listener) {
+        this.cpu = cpu;
+        this.listener = listener;
+        this.thread = new Thread(this::serve, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public CPU getCPU() {
+        return cpu;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public SpeedGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Run at most this many instructions per second; takes effect at once,
+     * also during a run.
+     *
+     * @param instructionsPerSecond
+     *            SpeedGovernor.UNLIMITED for full speed
+     */
+    public void setSpeed(double instructionsPerSecond) {
+        governor.setTargetRate(instructionsPerSecond);
+    }
+
+    /**
+     * Run until HLT, halt() or the end of the input.
+     */
+    public void run() {
+        haltRequested = false;
+        cpu.clearStopRequest();
+        commands.add(this::runLoop);
+    }
+
+    /**
+     * Execute one instruction.
+     */
+    public void step() {
+        commands.add(() -> {
+            int pc = cpu.getRegisters().getPC();
+            cpu.step();
+            cpu.getMCU().getPrinter().flush();
+            publish(Event.STEPPED, null, pc);
+        });
+    }
+
+    /**
+     * Stop a run after the current instruction, also when the program is
+     * waiting for input or an interrupt. The waits are woken through their
+     * monitors; the engine thread is never interrupted, as that would close
+     * a FileChannel it is reading or writing (disk, DMA, trace, recording).
+     */
+    public void halt() {
+        haltRequested = true;
+        cpu.requestStop();
+        governor.wakeUp();
+    }
+
+    /**
+     * Do something to the machine on the engine thread, after the commands
+     * queued before it (between two instructions when running), then
+     * publish the new state.
+     */
+    public void execute(Runnable task) {
+        commands.add(() -> {
+            task.run();
+            publish(Event.UPDATE, null, -1);
+        });
+    }
+
+    /**
+     * Halt and stop the engine thread; the CPU may be used by the caller
+     * afterwards.
+     */
+    public void shutdown() {
+        shutdown = true;
+        halt();
+        // wake up serve() if it is waiting for a command
+        commands.add(() -> {
+        });
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        while (!shutdown) {
+            Runnable command;
+            try {
+                command = commands.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                publish(Event.STOPPED, "Simulation error: " + e, -1);
+            }
+        }
+    }
+
+    private void runLoop() {
+        if (running) {
+            return;
+        }
+        running = true;
+        publish(Event.STARTED, null, -1);
+        long start = cpu.getInstructionCount();
+        long startNanos = System.nanoTime();
+        long lastPublish = startNanos;
+        governor.reset();
+        String reason;
+        try {
+            while (true) {
+                if (haltRequested) {
+                    reason = "Halted";
+                    break;
+                }
+                // edits queued while running; a nested run is ignored
+                Runnable command;
+                while ((command = commands.poll()) != null) {
+                    command.run();
+                }
+                long batch = governor.nextBatch(BATCH);
+                long executed = cpu.runUntilHalt(batch);
+                governor.pace(executed);
+                if (cpu.isHalted()) {
+                    reason = "HLT reached";
+                    break;
+                }
+                if (cpu.getBreakReason() != null) {
+                    reason = cpu.getBreakReason();
+                    break;
+                }
+                if (haltRequested) {
+                    continue;
+                }
+                if (executed < batch) {
+                    reason = "Input ended";
+                    break;
+                }
+                long now = System.nanoTime();
+                if (now - lastPublish >= PUBLISH_INTERVAL_MILLIS * 1000000L) {
+                    lastPublish = now;
+                    cpu.getMCU().getPrinter().flush();
+                    publish(Event.UPDATE, null, -1);
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            reason = "Run error: " + e;
+        } finally {
+            running = false;
+        }
+        cpu.getMCU().getPrinter().flush();
+        long instructions = cpu.getInstructionCount() - start;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String requested = governor.isUnlimited() ? "unlimited"
+                : String.format("%.0f requested", governor.getTargetRate());
+        publish(Event.STOPPED, String.format("%s at PC %06o after %d instructions (%.0f instructions/s, %s)", reason,
+                cpu.getRegisters().getPC(), instructions, seconds > 0 ? instructions / seconds : 0, requested), -1);
+    }
+
+    private void publish(Event event, String message, int previousPC) {
+        Snapshot snapshot = new Snapshot(event, message, cpu, governor, previousPC, running);
+        if (event == Event.UPDATE) {
+            // coalesce: only schedule if the panel has shown the last one,
+            // otherwise replace it, keeping its changed registers
+            Snapshot pending;
+            Snapshot merged;
+            do {
+                pending = latest.get();
+                merged = pending == null ? snapshot : new Snapshot(snapshot, pending);
+            } while (!latest.compareAndSet(pending, merged));
+            if (pending == null) {
+                SwingUtilities.invokeLater(() -> {
+                    Snapshot s = latest.getAndSet(null);
+                    if (s != null) {
+                        listener.accept(s);
+                    }
+                });
+            }
+        } else {
+            // events are never dropped; an older pending update is
+            Snapshot pending = latest.getAndSet(null);
+            Snapshot shown = pending == null ? snapshot : new Snapshot(snapshot, pending);
+            SwingUtilities.invokeLater(() -> listener.accept(shown));
+        }
+    }
+}
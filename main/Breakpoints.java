@@ -0,0 +1,164 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import cpu.Registers;
+import util.Const;
+
+/**
+ * PC breakpoints, one bit per address. After every instruction the CPU
+ * tests the bit of the next PC; only when it is set is the breakpoint's
+ * condition, if any, evaluated. With no breakpoints the cost is that one
+ * bit test.<br/>
+ * A condition is a register predicate, written as comparisons joined by
+ * &&, e.g. "R0 == 0 && X1 > 10"; values are octal like the register
+ * fields of the front panel. Set and clear breakpoints on the thread that
+ * runs the CPU.
+ */
+public class Breakpoints {
+
+    private static final int WORDS = Const.MEMORY_WORDS_BOUND_EXPANDED / 64;
+
+    // tested by the CPU as bits[(pc >>> 6) & INDEX_MASK], so any PC value
+    // is a valid index; shouldBreak() rejects the aliases
+    static final int INDEX_MASK = WORDS - 1;
+    final long[] bits = new long[WORDS];
+    private final Map<Integer, Predicate<Registers>> conditions = new HashMap<>();
+    private final Map<Integer, String> conditionText = new HashMap<>();
+
+    /**
+     * Break before the instruction at address is executed.
+     */
+    public void set(int address) {
+        set(address, null);
+    }
+
+    /**
+     * Break before the instruction at address when condition holds.
+     *
+     * @param condition
+     *            e.g. "R1 != 0", null or empty to always break
+     * @throws IllegalArgumentException
+     *             if the condition cannot be parsed
+     */
+    public void set(int address, String condition) {
+        if (address < 0 || address >= WORDS * 64) {
+            throw new IllegalArgumentException("Address " + address + " out of range");
+        }
+        if (condition == null || condition.trim().isEmpty()) {
+            conditions.remove(address);
+            conditionText.remove(address);
+        } else {
+            conditions.put(address, parseCondition(condition));
+            conditionText.put(address, condition.trim());
+        }
+        bits[address >>> 6] |= 1L << address;
+    }
+
+    public void remove(int address) {
+        if (address < 0 || address >= WORDS * 64) {
+            return;
+        }
+        bits[address >>> 6] &= ~(1L << address);
+        conditions.remove(address);
+        conditionText.remove(address);
+    }
+
+    public boolean isSet(int address) {
+        return address >= 0 && address < WORDS * 64 && (bits[address >>> 6] & (1L << address)) != 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < WORDS; i++) {
+            bits[i] = 0;
+        }
+        conditions.clear();
+        conditionText.clear();
+    }
+
+    /**
+     * @return the breakpoints in ascending order, e.g. "000020 if R0 == 0"
+     */
+    public List<String> describe() {
+        List<String> list = new ArrayList<>();
+        for (int address = 0; address < WORDS * 64; address++) {
+            if (isSet(address)) {
+                String condition = conditionText.get(address);
+                list.add(String.format("%06o", address) + (condition == null ? "" : " if " + condition));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Called once the bit of pc is known to be set.
+     */
+    boolean shouldBreak(int pc, Registers registers) {
+        if (pc < 0 || pc >= WORDS * 64) {
+            return false;
+        }
+        Predicate<Registers> condition = conditions.get(pc);
+        return condition == null || condition.test(registers);
+    }
+
+    /**
+     * Parse "REG op value [&& REG op value ...]" with op one of == != < <=
+     * > >= and an octal value.
+     */
+    public static Predicate<Registers> parseCondition(String text) {
+        Predicate<Registers> result = null;
+        for (String term : text.split("&&")) {
+            Predicate<Registers> comparison = parseComparison(term.trim());
+            result = result == null ? comparison : result.and(comparison);
+        }
+        return result;
+    }
+
+    private static Predicate<Registers> parseComparison(String term) {
+        String[] ops = { "==", "!=", "<=", ">=", "<", ">" };
+        for (String op : ops) {
+            int at = term.indexOf(op);
+            if (at <= 0) {
+                continue;
+            }
+            String name = term.substring(0, at).trim().toUpperCase();
+            if (!isRegister(name)) {
+                throw new IllegalArgumentException("Unknown register: " + name);
+            }
+            int value;
+            try {
+                value = Integer.parseInt(term.substring(at + op.length()).trim(), 8);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an octal value: " + term.substring(at + op.length()).trim());
+            }
+            switch (op) {
+            case "==":
+                return r -> r.getRegistersByName(name) == value;
+            case "!=":
+                return r -> r.getRegistersByName(name) != value;
+            case "<=":
+                return r -> r.getRegistersByName(name) <= value;
+            case ">=":
+                return r -> r.getRegistersByName(name) >= value;
+            case "<":
+                return r -> r.getRegistersByName(name) < value;
+            default:
+                return r -> r.getRegistersByName(name) > value;
+            }
+        }
+        throw new IllegalArgumentException("Expected REG op value: " + term);
+    }
+
+    private static boolean isRegister(String name) {
+        for (String register : Registers.NAMES) {
+            if (register.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,42 +1,356 @@
 package main;
 
+import java.util.Arrays;
+
 import alu.instruction.*;
 import cpu.Registers;
+import device.InterruptController;
 import memory.MCU;
+import memory.Watchpoints;
+import util.Const;
+import util.EffectiveAddress;
 
 public class CPU {
     // Registers hold current CPU state (PC, IR, R0-R3, etc.)
     private Registers registers;
     // MCU handles all memory access, routed through cache 
     private MCU mcu;
+    // number of instructions executed so far
+    private long instructionCount;
+    // simulated time in cycles, drives the interval timers; one cycle per
+    // instruction
+    private long cycleCount;
+    // set once a HLT has been executed
+    private boolean halted;
+    // runUntilHalt() stops in front of a HLT instead of executing it, so
+    // PC stays on the HLT (the front panel's Run)
+    private boolean stopAtHalt;
+    // set from another thread to make runUntilHalt() return, also while it
+    // waits for input or an interrupt; cleared by clearStopRequest()
+    private volatile boolean stopRequested;
+    // instructions fetched per opcode and per address, for the dashboard;
+    // written by the running thread only and read without locking, so a
+    // reader may see values a few instructions old
+    private final long[] opcodeCounts = new long[64];
+    private final long[] pcCounts = new long[Const.MEMORY_WORDS_BOUND_EXPANDED];
+    // PC breakpoints, tested against the next PC after every instruction
+    private final Breakpoints breakpoints = new Breakpoints();
+    // why the last step() returned STATUS_BREAK
+    private String breakReason;
+    // notified after every instruction
+    private StepListener[] stepListeners = new StepListener[0];
+    // notified after a fault has been vectored to the handler
+    private FaultListener faultListener;
 
     public CPU(Registers registers, MCU mcu) {
         this.registers = registers;
         this.mcu = mcu;
+        mcu.getInterrupts().connect(registers, this::getCycleCount);
+    }
+
+    public Registers getRegisters() {
+        return registers;
+    }
+
+    public MCU getMCU() {
+        return mcu;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public long getCycleCount() {
+        return cycleCount;
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    public Breakpoints getBreakpoints() {
+        return breakpoints;
+    }
+
+    // getBreakReason() tells why the last instruction stopped the run, null
+    // if it did not
+    public String getBreakReason() {
+        return breakReason;
+    }
+
+    // copyOpcodeCounts() copies the number of instructions fetched per
+    // opcode into counts[0..63]; safe to call from any thread
+    public void copyOpcodeCounts(long[] counts) {
+        System.arraycopy(opcodeCounts, 0, counts, 0, opcodeCounts.length);
+    }
+
+    // copyPCCounts() copies the number of instructions fetched per address
+    // into counts, as many as fit; safe to call from any thread
+    public void copyPCCounts(long[] counts) {
+        System.arraycopy(pcCounts, 0, counts, 0, Math.min(counts.length, pcCounts.length));
+    }
+
+    // only used to rewind the CPU (UndoLog)
+    void setInstructionCount(long instructionCount) {
+        this.instructionCount = instructionCount;
+    }
+
+    // only used to rewind the CPU (UndoLog)
+    void setCycleCount(long cycleCount) {
+        this.cycleCount = cycleCount;
+    }
+
+    public void setHalted(boolean halted) {
+        this.halted = halted;
+    }
+
+    public void setStopAtHalt(boolean stopAtHalt) {
+        this.stopAtHalt = stopAtHalt;
+    }
+
+    /**
+     * Make runUntilHalt() return after the current instruction if it is
+     * waiting for input or an interrupt; callable from any thread. The
+     * waits are ended through their monitors, so the thread is not
+     * interrupted (which would close a FileChannel it is using).
+     */
+    public void requestStop() {
+        stopRequested = true;
+        mcu.getKeyboard().wakeUp();
+        mcu.getInterrupts().wakeUp();
+    }
+
+    public void clearStopRequest() {
+        stopRequested = false;
+    }
+
+    public void setFaultListener(FaultListener faultListener) {
+        this.faultListener = faultListener;
+    }
+
+    public FaultListener getFaultListener() {
+        return faultListener;
+    }
+
+    // only used to re-execute instructions quietly (UndoLog); returns the
+    // listeners that were installed
+    StepListener[] setStepListeners(StepListener... listeners) {
+        StepListener[] installed = stepListeners;
+        stepListeners = listeners;
+        return installed;
+    }
+
+    public void addStepListener(StepListener listener) {
+        StepListener[] listeners = Arrays.copyOf(stepListeners, stepListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        stepListeners = listeners;
     }
-    // step() performs one fetch-decode-execute cycle
-    public void step() throws Exception {
+
+    public void removeStepListener(StepListener listener) {
+        StepListener[] listeners = new StepListener[stepListeners.length];
+        int n = 0;
+        for (StepListener l : stepListeners) {
+            if (l != listener) {
+                listeners[n++] = l;
+            }
+        }
+        stepListeners = Arrays.copyOf(listeners, n);
+    }
+    // step() performs one fetch-decode-execute cycle and returns one of the
+    // Const.STATUS_* codes. Machine faults are handled here without
+    // exceptions: MFR is set and the CPU vectors to the fault handler.
+    public int step() {
+        for (StepListener listener : stepListeners) {
+            listener.beforeStep(this);
+        }
+
+        InterruptController interrupts = mcu.getInterrupts();
+        if (interrupts.hasRaised()) {
+            interrupts.latchRaised();
+        }
+        if (cycleCount >= interrupts.getNextDeadline()) {
+            interrupts.advanceTo(cycleCount);
+        }
+        if (!interrupts.takeShadow() && interrupts.isPending()
+                && (registers.getMSR() & Const.MSR_INTERRUPT_ENABLE) != 0) {
+            deliverInterrupt(interrupts);
+        }
 
         int pc = registers.getPC();
-        // FETCH: load instruction from memory into IR
-        registers.setMAR(pc);
-        registers.setMBR(mcu.fetchFromCache(pc));
-        registers.setIR(registers.getMBR());
-        // DECODE: convert top 6 bits of IR to opcode number
-        String instruction = registers.getBinaryStringIr();
-        // EXECUTE: dispatch instruction to ALU or control logic    
-        int opcode = Integer.parseInt(instruction.substring(0, 6), 2);
-        // EXECUTE: run the instruction
-        AbstractInstruction inst = decodeInstruction(opcode);
-        inst.execute(instruction, registers, mcu);
+        int status;
+        if (!EffectiveAddress.isValidAddress(pc, mcu, registers)) {
+            status = Const.STATUS_FAULT;
+        } else {
+            // FETCH: load instruction from memory into IR
+            registers.setMAR(pc);
+            registers.setMBR(mcu.fetchFromCache(pc));
+            registers.setIR(registers.getMBR());
+            // the fetch is not a data read
+            mcu.getWatchpoints().clearHit();
+            // DECODE: convert top 6 bits of IR to opcode number
+            String instruction = registers.getBinaryStringIr();
+            int opcode = Integer.parseInt(instruction.substring(0, 6), 2);
+            opcodeCounts[opcode]++;
+            pcCounts[pc]++;
+            // EXECUTE: dispatch instruction to ALU or control logic
+            AbstractInstruction inst = decodeInstruction(opcode);
+            if (inst == null) {
+                registers.setMFR(Const.FaultCode.ILL_OPRC.getValue());
+                status = Const.STATUS_FAULT;
+            } else {
+                status = inst.execute(instruction, registers, mcu);
+            }
+        }
+        instructionCount++;
+        // plus the time a DMA or disk transfer of the instruction took
+        cycleCount += 1 + interrupts.takeCharged();
+        if (status == Const.STATUS_OK && registers.getPC() == pc && opcodeOf(registers.getIR()) == JMA_OPCODE
+                && (registers.getMSR() & Const.MSR_INTERRUPT_ENABLE) != 0) {
+            // waiting for an interrupt: nothing changes until the next
+            // timer tick, so skip the cycles up to it
+            status = Const.STATUS_IDLE;
+            if (!interrupts.isPending() && interrupts.getNextDeadline() != Long.MAX_VALUE) {
+                cycleCount = Math.max(cycleCount, interrupts.getNextDeadline());
+            }
+        }
+        if (status == Const.STATUS_HALT) {
+            halted = true;
+        } else if (status == Const.STATUS_FAULT) {
+            vectorFault(pc);
+        }
+        breakReason = null;
+        if (status == Const.STATUS_OK) {
+            status = checkBreak();
+        }
+        for (StepListener listener : stepListeners) {
+            listener.afterStep(this);
+        }
+        return status;
+    }
+
+    // checkBreak() returns STATUS_BREAK if the instruction just executed
+    // touched a watched word or the next one has a breakpoint whose
+    // condition holds. Each costs one test while nothing is set.
+    private int checkBreak() {
+        Watchpoints watchpoints = mcu.getWatchpoints();
+        if (watchpoints.getHitAddress() != Watchpoints.NO_HIT) {
+            breakReason = String.format("Watchpoint: %s %06o (value %06o)", watchpoints.isHitWrite() ? "write to"
+                    : "read of", watchpoints.getHitAddress(), watchpoints.getHitValue() & 0xFFFF);
+            watchpoints.clearHit();
+            return Const.STATUS_BREAK;
+        }
+        int next = registers.getPC();
+        if ((breakpoints.bits[(next >>> 6) & Breakpoints.INDEX_MASK] & (1L << next)) != 0
+                && breakpoints.shouldBreak(next, registers)) {
+            breakReason = "Breakpoint";
+            return Const.STATUS_BREAK;
+        }
+        return Const.STATUS_OK;
+    }
+
+    // vectorFault() saves PC and MSR in the reserved locations and jumps to
+    // the fault handler whose address is in location 1. With no handler
+    // installed the machine halts instead of running location 0.
+    private void vectorFault(int faultPC) {
+        registers.setMAR(Const.FAULT_PC_LOCATION);
+        registers.setMBR(faultPC);
+        mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
+        registers.setMAR(Const.FAULT_MSR_LOCATION);
+        registers.setMBR(registers.getMSR());
+        mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
+
+        int handler = mcu.fetchFromCache(Const.FAULT_HANDLER_LOCATION);
+        if (handler == 0) {
+            halted = true;
+        } else {
+            registers.setPC(handler);
+        }
+        if (faultListener != null) {
+            faultListener.onFault(this, registers.getMFR(), faultPC);
+        }
+    }
+
+    // deliverInterrupt() saves PC and MSR in the reserved locations, masks
+    // further interrupts and continues at the handler in location 7. With
+    // no handler installed the interrupt stays pending.
+    private void deliverInterrupt(InterruptController interrupts) {
+        int handler = mcu.fetchFromCache(Const.INTERRUPT_HANDLER_LOCATION);
+        if (handler == 0) {
+            return;
+        }
+        interrupts.acknowledge();
+        registers.setMAR(Const.INTERRUPT_PC_LOCATION);
+        registers.setMBR(registers.getPC());
+        mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
+        registers.setMAR(Const.INTERRUPT_MSR_LOCATION);
+        registers.setMBR(registers.getMSR());
+        mcu.storeIntoCache(registers.getMAR(), registers.getMBR());
+        registers.setMSR(registers.getMSR() & ~Const.MSR_INTERRUPT_ENABLE);
+        registers.setPC(handler);
     }
-     public void run() throws Exception {
-        while (true) {
-            step();
+
+     public void run() {
+        runUntilHalt(Long.MAX_VALUE);
+    }
+
+    // runUntilHalt() steps until a HLT is executed (or reached, see
+    // setStopAtHalt()), maxSteps instructions have run, a breakpoint or
+    // watchpoint is hit (getBreakReason()), the input has ended or a stop
+    // is requested (or the thread interrupted) while waiting, and returns
+    // the number of
+    // instructions executed. An IN without input parks the thread until
+    // input arrives instead of spinning on the IN, and so does a program
+    // waiting for an interrupt (see idle()).
+    public long runUntilHalt(long maxSteps) {
+        long start = instructionCount;
+        halted = false;
+        while (!halted && instructionCount - start < maxSteps) {
+            if (stopAtHalt && isAtHalt()) {
+                halted = true;
+                break;
+            }
+            int status = step();
+            if (status == Const.STATUS_BREAK) {
+                break;
+            } else if (status == Const.STATUS_STALL) {
+                if (!mcu.awaitInput(registers.getIR() & 0x1F) || stopRequested
+                        || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            } else if (status == Const.STATUS_IDLE) {
+                idle();
+                if (stopRequested || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
         }
+        return instructionCount - start;
+    }
+
+    // idle() is called when the program jumps to itself with interrupts
+    // enabled. step() has already skipped to the next timer tick; with no
+    // timer running sleep until a device raises an interrupt.
+    private void idle() {
+        InterruptController interrupts = mcu.getInterrupts();
+        if (!interrupts.isPending() && interrupts.getNextDeadline() == Long.MAX_VALUE) {
+            interrupts.awaitInterrupt();
+        }
+    }
+
+    // isAtHalt() is true when the word at PC is a HLT
+    private boolean isAtHalt() {
+        int pc = registers.getPC();
+        return pc >= 0 && pc < mcu.getCurrentMemorySize() && mcu.fetchFromMemory(pc) == 0;
+    }
+
+    private static final int JMA_OPCODE = 11;
+
+    private static int opcodeOf(int instruction) {
+        return (instruction >>> 10) & 0x3F;
     }
 
 
+    // decodeInstruction() returns null for an illegal opcode
     private AbstractInstruction decodeInstruction(int opcode) {
      switch (opcode) {
         case 0:  return new HLT();   // octal 00
@@ -55,19 +369,21 @@ public class CPU {
         case 13: return new RFS();   // octal 15
         case 14: return new SOB();   // octal 16
         case 15: return new JGE();   // octal 17
+        case 24: return new TRAP();  // octal 30
         case 25: return new SRC();   // octal 31
         case 26: return new RRC();   // octal 32
         case 33: return new LDX();   // octal 41
         case 34: return new STX();   // octal 42
         case 49: return new IN();    // octal 61
         case 50: return new OUT();   // octal 62
+        case 51: return new CHK();   // octal 63
         case 56: return new MLT();   // octal 70
         case 57: return new DVD();   // octal 71
         case 58: return new TRR();   // octal 72
         case 59: return new AND();   // octal 73
         case 60: return new ORR();   // octal 74
         case 61: return new NOT();   // octal 75
-        default: throw new RuntimeException("Unknown opcode: " + opcode);
+        default: return null;
     }
 }
 }
\ No newline at end of file
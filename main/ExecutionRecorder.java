@@ -0,0 +1,410 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import cpu.Registers;
+import device.InterruptController;
+import device.IntervalTimer;
+import memory.InputSource;
+import memory.MCU;
+import memory.MmioRegion;
+import memory.Test;
+
+/**
+ * Records an execution so that ExecutionReplayer can reproduce it exactly.
+ * <br/>
+ * Only the nondeterministic inputs are logged: words returned to IN,
+ * device status returned to CHK, device buffer words loaded through the
+ * memory-mapped I/O region, interrupts raised by devices fed from other threads, and register edits
+ * made from the front panel. The log starts with a full
+ * snapshot of the machine and contains a checkpoint (PC and a CRC of the
+ * registers and memory) every checkpointInterval instructions, so a replay
+ * that diverges is detected close to where it happens.<br/>
+ * Log layout (GZIP compressed): header, snapshot, then events of the form
+ * type byte, instruction count delta (varint), payload.
+ */
+public class ExecutionRecorder implements StepListener, InputSource {
+
+    static final int MAGIC = 0x43363436; // "C646"
+    static final int VERSION = 6;
+
+    static final int EVENT_INPUT = 1;
+    static final int EVENT_REGISTER = 2;
+    static final int EVENT_CHECKPOINT = 3;
+    static final int EVENT_END = 4;
+    static final int EVENT_INTERRUPT = 5;
+    static final int EVENT_STATUS = 6;
+    static final int EVENT_BUFFER = 7;
+    static final int EVENT_FILE = 8;
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 100000;
+
+    private final CPU cpu;
+    private final DataOutputStream out;
+    private final int checkpointInterval;
+    private final InputSource recordedSource;
+    private final IntConsumer recordedLatchObserver;
+
+    // instruction count of the last event written
+    private long lastEventCount;
+    private long nextCheckpoint;
+    private boolean closed;
+
+    /**
+     * Start recording the given CPU into a log file. Recording starts with a
+     * snapshot of the current state.
+     */
+    public ExecutionRecorder(CPU cpu, String logFile, int checkpointInterval) throws IOException {
+        this.cpu = cpu;
+        this.checkpointInterval = checkpointInterval;
+        this.out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)), 8192));
+        this.lastEventCount = cpu.getInstructionCount();
+        this.nextCheckpoint = lastEventCount + checkpointInterval;
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(checkpointInterval);
+        writeVarLong(out, cpu.getInstructionCount());
+        writeSnapshot(out, cpu.getRegisters(), cpu.getMCU());
+        writeInterruptState(out, cpu);
+        writeMmio(out, cpu.getMCU());
+
+        MCU mcu = cpu.getMCU();
+        this.recordedSource = mcu.getInputSource();
+        this.recordedLatchObserver = mcu.getInterrupts().getLatchObserver();
+        mcu.setInputSource(this);
+        mcu.getInterrupts().setLatchObserver(this::recordInterrupt);
+        cpu.addStepListener(this);
+    }
+
+    public ExecutionRecorder(CPU cpu, String logFile) throws IOException {
+        this(cpu, logFile, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Input source installed in front of the MCU's own: pass the read through
+     * and log what it returned.
+     */
+    @Override
+    public int read(int devid) {
+        int value = recordedSource.read(devid);
+        if (value >= 0 && !closed) {
+            try {
+                writeEvent(EVENT_INPUT, cpu.getInstructionCount());
+                out.writeByte(devid);
+                writeVarLong(out, value);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean awaitInput(int devid) {
+        return recordedSource.awaitInput(devid);
+    }
+
+    /**
+     * A FILE_TO_MEMORY transfer: log the result and every word read, the
+     * replaying machine has no file attached.
+     */
+    @Override
+    public int readFile(int[] words, int count) {
+        int n = recordedSource.readFile(words, count);
+        if (!closed) {
+            try {
+                writeEvent(EVENT_FILE, cpu.getInstructionCount());
+                writeVarLong(out, zigZag(n));
+                for (int i = 0; i < n; i++) {
+                    writeVarLong(out, words[i]);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int status(int devid) {
+        int status = recordedSource.status(devid);
+        if (!closed) {
+            try {
+                writeEvent(EVENT_STATUS, cpu.getInstructionCount());
+                out.writeByte(devid);
+                writeVarLong(out, status);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return status;
+    }
+
+    @Override
+    public int readBuffer(int devid, int index) {
+        int word = recordedSource.readBuffer(devid, index);
+        if (!closed) {
+            try {
+                writeEvent(EVENT_BUFFER, cpu.getInstructionCount());
+                out.writeByte(devid);
+                writeVarLong(out, word);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return word;
+    }
+
+    /**
+     * Log the interrupt lines latched before the current instruction.
+     */
+    private void recordInterrupt(int lines) {
+        if (recordedLatchObserver != null) {
+            recordedLatchObserver.accept(lines);
+        }
+        if (closed) {
+            return;
+        }
+        try {
+            writeEvent(EVENT_INTERRUPT, cpu.getInstructionCount());
+            writeVarLong(out, lines);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Log a register changed from outside the program (front panel Store or
+     * LOAD). It is replayed just before the next instruction.
+     */
+    public void recordRegisterEdit(String name, int value) {
+        int index = registerIndex(name);
+        if (index < 0 || closed) {
+            return;
+        }
+        try {
+            writeEvent(EVENT_REGISTER, cpu.getInstructionCount());
+            out.writeByte(index);
+            writeVarLong(out, zigZag(value));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void afterStep(CPU cpu) {
+        if (cpu.getInstructionCount() < nextCheckpoint || closed) {
+            return;
+        }
+        nextCheckpoint = cpu.getInstructionCount() + checkpointInterval;
+        try {
+            writeEvent(EVENT_CHECKPOINT, cpu.getInstructionCount());
+            writeVarLong(out, cpu.getRegisters().getPC());
+            writeVarLong(out, checksum(cpu.getRegisters(), cpu.getMCU()));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stop recording: write the end marker and detach from the CPU.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cpu.removeStepListener(this);
+        cpu.getMCU().setInputSource(recordedSource);
+        cpu.getMCU().getInterrupts().setLatchObserver(recordedLatchObserver);
+        writeEvent(EVENT_END, cpu.getInstructionCount());
+        writeVarLong(out, checksum(cpu.getRegisters(), cpu.getMCU()));
+        out.close();
+    }
+
+    private void writeEvent(int type, long instructionCount) throws IOException {
+        out.writeByte(type);
+        writeVarLong(out, instructionCount - lastEventCount);
+        lastEventCount = instructionCount;
+    }
+
+    private void fail(IOException e) {
+        // recording must never stop the program; give up on the log instead
+        closed = true;
+        System.out.println("Recording stopped: " + e.getMessage());
+    }
+
+    static int registerIndex(String name) {
+        for (int i = 0; i < Registers.NAMES.length; i++) {
+            if (Registers.NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static void writeSnapshot(DataOutputStream out, Registers registers, MCU mcu) throws IOException {
+        for (String name : Registers.NAMES) {
+            out.writeInt(registers.getRegistersByName(name));
+        }
+        int size = mcu.getCurrentMemorySize();
+        out.writeInt(size);
+        for (int address = 0; address < size; address++) {
+            out.writeInt(mcu.fetchFromMemory(address));
+        }
+        Test cache = mcu.getCache();
+        out.writeInt(cache.getCapacity());
+        out.writeInt(cache.getCacheLines().size());
+        for (Test.CacheLine line : cache.getCacheLines()) {
+            out.writeInt(line.getTag());
+            out.writeInt(line.getData());
+        }
+        // pending keyboard and card input is not part of the snapshot:
+        // every word reaches the program through IN and is logged as an
+        // input event when it is read
+    }
+
+    static void readSnapshot(DataInputStream in, Registers registers, MCU mcu) throws IOException {
+        for (String name : Registers.NAMES) {
+            registers.setRegistersByName(name, in.readInt());
+        }
+        int size = in.readInt();
+        if (size > mcu.getCurrentMemorySize()) {
+            mcu.expandMemorySize();
+        }
+        for (int address = 0; address < size; address++) {
+            mcu.storeIntoMemory(address, in.readInt());
+        }
+        mcu.setCache(new Test(in.readInt()));
+        int lines = in.readInt();
+        int[] tags = new int[lines];
+        int[] data = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            tags[i] = in.readInt();
+            data[i] = in.readInt();
+        }
+        // add() inserts at the front, so replay the lines oldest first
+        for (int i = lines - 1; i >= 0; i--) {
+            mcu.getCache().add(tags[i], data[i]);
+        }
+    }
+
+    /**
+     * Interrupt mask and pending lines and the timer, relative to the CPU's
+     * cycle counter.
+     */
+    static void writeInterruptState(DataOutputStream out, CPU cpu) throws IOException {
+        InterruptController interrupts = cpu.getMCU().getInterrupts();
+        IntervalTimer timer = cpu.getMCU().getTimer();
+        out.writeInt(interrupts.getMask());
+        out.writeInt(interrupts.getPendingLines());
+        writeVarLong(out, timer.getInterval());
+        writeVarLong(out, timer.getInterval() > 0 ? Math.max(0, timer.getNextFire() - cpu.getCycleCount()) : 0);
+        writeVarLong(out, timer.getTicks());
+    }
+
+    static void readInterruptState(DataInputStream in, CPU cpu) throws IOException {
+        InterruptController interrupts = cpu.getMCU().getInterrupts();
+        IntervalTimer timer = cpu.getMCU().getTimer();
+        // lines raised while the snapshot was loaded (keyboard input) are
+        // not interrupts of the recording
+        interrupts.latchRaised();
+        interrupts.setMask(in.readInt());
+        interrupts.setPendingLines(in.readInt());
+        long interval = readVarLong(in);
+        timer.restart(interval, readVarLong(in));
+        timer.setTicks(readVarLong(in));
+    }
+
+    /**
+     * Layout of the memory-mapped I/O region, so mapped loads and stores
+     * reach the same devices when replayed.
+     */
+    static void writeMmio(DataOutputStream out, MCU mcu) throws IOException {
+        MmioRegion region = mcu.getMmio();
+        if (region == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(region.getSize());
+        out.writeShort(region.getBase());
+        for (int offset = 0; offset < region.getSize(); offset++) {
+            out.writeByte(region.devidAt(offset));
+            out.writeShort(region.registerAt(offset));
+        }
+    }
+
+    static void readMmio(DataInputStream in, MCU mcu) throws IOException {
+        int size = in.readUnsignedShort();
+        if (size == 0) {
+            mcu.setMmio(null);
+            return;
+        }
+        int base = in.readUnsignedShort();
+        int[] devids = new int[size];
+        int[] registers = new int[size];
+        for (int offset = 0; offset < size; offset++) {
+            devids[offset] = in.readUnsignedByte();
+            registers[offset] = in.readShort();
+        }
+        mcu.setMmio(new MmioRegion(base, devids, registers));
+    }
+
+    /**
+     * CRC of the registers and installed memory
+     */
+    static long checksum(Registers registers, MCU mcu) {
+        CRC32 crc = new CRC32();
+        for (String name : Registers.NAMES) {
+            updateInt(crc, registers.getRegistersByName(name));
+        }
+        int size = mcu.getCurrentMemorySize();
+        for (int address = 0; address < size; address++) {
+            updateInt(crc, mcu.fetchFromMemory(address));
+        }
+        return crc.getValue();
+    }
+
+    private static void updateInt(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
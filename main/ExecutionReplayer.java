@@ -0,0 +1,228 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import cpu.Registers;
+import memory.InputSource;
+
+/**
+ * Replays a log written by ExecutionRecorder on a fresh machine, without
+ * the front panel. Every IN gets exactly the word it got while recording,
+ * at the same instruction, interrupts raised by devices are raised again
+ * before the same instruction, and register edits are applied at the same
+ * point of the run. Checkpoints are verified as they are reached.<br/>
+ * Usage: java main.ExecutionReplayer replay.log
+ */
+public class ExecutionReplayer implements InputSource {
+
+    private final DataInputStream in;
+    private final Machine machine;
+    private final CPU cpu;
+
+    // the next event in the log, read ahead
+    private int nextType;
+    private long nextCount;
+
+    // instruction count of the recorded CPU when recording started
+    private final long startCount;
+    // instruction count of the last event read
+    private long lastEventCount;
+    private int checkpointsVerified;
+    private String divergence;
+
+    public ExecutionReplayer(String logFile) throws IOException {
+        this.in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(logFile)), 8192));
+        if (in.readInt() != ExecutionRecorder.MAGIC || in.readShort() != ExecutionRecorder.VERSION) {
+            in.close();
+            throw new IOException(logFile + " is not an execution log");
+        }
+        in.readInt(); // checkpoint interval
+        this.startCount = ExecutionRecorder.readVarLong(in);
+        this.lastEventCount = startCount;
+
+        this.machine = new Machine("replay");
+        this.cpu = machine.getCPU();
+        machine.getMCU().setCacheTrace(false);
+        ExecutionRecorder.readSnapshot(in, machine.getRegisters(), machine.getMCU());
+        ExecutionRecorder.readInterruptState(in, cpu);
+        ExecutionRecorder.readMmio(in, machine.getMCU());
+        machine.getMCU().setInputSource(this);
+        readNextEvent();
+    }
+
+    public Machine getMachine() {
+        return machine;
+    }
+
+    public int getCheckpointsVerified() {
+        return checkpointsVerified;
+    }
+
+    /**
+     * @return description of the first checkpoint that did not match, or
+     *         null if the replay matched the recording
+     */
+    public String getDivergence() {
+        return divergence;
+    }
+
+    /**
+     * Run the whole log. The CPU instruction count is relative to the start
+     * of the recording.
+     *
+     * @return true if every checkpoint and the final state matched
+     */
+    public boolean replay() throws IOException {
+        try {
+            while (divergence == null) {
+                long count = recordedCount();
+                while (nextType == ExecutionRecorder.EVENT_REGISTER && nextCount == count) {
+                    int index = in.readUnsignedByte();
+                    int value = (int) ExecutionRecorder.unZigZag(ExecutionRecorder.readVarLong(in));
+                    machine.getRegisters().setRegistersByName(Registers.NAMES[index], value);
+                    readNextEvent();
+                }
+                while (nextType == ExecutionRecorder.EVENT_INTERRUPT && nextCount == count) {
+                    int lines = (int) ExecutionRecorder.readVarLong(in);
+                    for (int line = 0; line < 32; line++) {
+                        if ((lines & (1 << line)) != 0) {
+                            machine.getMCU().getInterrupts().raise(line);
+                        }
+                    }
+                    readNextEvent();
+                }
+                if (nextType == ExecutionRecorder.EVENT_CHECKPOINT && nextCount == count) {
+                    verifyCheckpoint();
+                    readNextEvent();
+                    continue;
+                }
+                if (nextType == ExecutionRecorder.EVENT_END && nextCount == count) {
+                    long expected = ExecutionRecorder.readVarLong(in);
+                    if (expected != ExecutionRecorder.checksum(machine.getRegisters(), machine.getMCU())) {
+                        divergence = "final state differs at instruction " + count;
+                    }
+                    return divergence == null;
+                }
+                cpu.step();
+            }
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public int read(int devid) {
+        if (nextType != ExecutionRecorder.EVENT_INPUT || nextCount != recordedCount()) {
+            // no input was available at this instruction when recording
+            return -1;
+        }
+        try {
+            in.readUnsignedByte(); // devid
+            int value = (int) ExecutionRecorder.readVarLong(in);
+            readNextEvent();
+            return value;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt execution log", e);
+        }
+    }
+
+    @Override
+    public int status(int devid) {
+        if (nextType != ExecutionRecorder.EVENT_STATUS || nextCount != recordedCount()) {
+            if (divergence == null) {
+                divergence = "CHK at instruction " + recordedCount() + " was not recorded";
+            }
+            return 0;
+        }
+        try {
+            in.readUnsignedByte(); // devid
+            int value = (int) ExecutionRecorder.readVarLong(in);
+            readNextEvent();
+            return value;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt execution log", e);
+        }
+    }
+
+    @Override
+    public int readBuffer(int devid, int index) {
+        if (nextType != ExecutionRecorder.EVENT_BUFFER || nextCount != recordedCount()) {
+            if (divergence == null) {
+                divergence = "buffer load at instruction " + recordedCount() + " was not recorded";
+            }
+            return 0;
+        }
+        try {
+            in.readUnsignedByte(); // devid
+            int value = (int) ExecutionRecorder.readVarLong(in);
+            readNextEvent();
+            return value;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt execution log", e);
+        }
+    }
+
+    @Override
+    public int readFile(int[] words, int count) {
+        if (nextType != ExecutionRecorder.EVENT_FILE || nextCount != recordedCount()) {
+            if (divergence == null) {
+                divergence = "DMA file read at instruction " + recordedCount() + " was not recorded";
+            }
+            return -1;
+        }
+        try {
+            int n = (int) ExecutionRecorder.unZigZag(ExecutionRecorder.readVarLong(in));
+            for (int i = 0; i < n; i++) {
+                words[i] = (int) ExecutionRecorder.readVarLong(in);
+            }
+            readNextEvent();
+            return n;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt execution log", e);
+        }
+    }
+
+    private void verifyCheckpoint() throws IOException {
+        int pc = (int) ExecutionRecorder.readVarLong(in);
+        long crc = ExecutionRecorder.readVarLong(in);
+        if (pc != machine.getRegisters().getPC()
+                || crc != ExecutionRecorder.checksum(machine.getRegisters(), machine.getMCU())) {
+            divergence = String.format("checkpoint at instruction %d differs (recorded PC %06o, replayed PC %06o)",
+                    recordedCount(), pc, machine.getRegisters().getPC());
+        } else {
+            checkpointsVerified++;
+        }
+    }
+
+    // instruction count in the recording's numbering
+    private long recordedCount() {
+        return startCount + cpu.getInstructionCount();
+    }
+
+    private void readNextEvent() throws IOException {
+        try {
+            nextType = in.readUnsignedByte();
+        } catch (EOFException e) {
+            throw new IOException("Execution log is truncated", e);
+        }
+        lastEventCount += ExecutionRecorder.readVarLong(in);
+        nextCount = lastEventCount;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String logFile = args.length > 0 ? args[0] : "replay.log";
+        ExecutionReplayer replayer = new ExecutionReplayer(logFile);
+        long start = System.nanoTime();
+        boolean matched = replayer.replay();
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("Replayed %d instructions in %.3f ms, %d checkpoints verified",
+                replayer.cpu.getInstructionCount(), nanos / 1e6, replayer.checkpointsVerified));
+        System.out.println(matched ? "Replay matches the recording." : "Replay DIVERGED: " + replayer.divergence);
+    }
+}
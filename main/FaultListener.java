@@ -0,0 +1,16 @@
+package main;
+
+/**
+ * Notified by the CPU after it has vectored a machine fault to the handler.
+ * Called on the thread running the CPU.
+ */
+public interface FaultListener {
+
+    /**
+     * @param faultCode
+     *            value put in MFR, see Const.FaultCode
+     * @param faultPC
+     *            address of the instruction that faulted
+     */
+    void onFault(CPU cpu, int faultCode, int faultPC);
+}
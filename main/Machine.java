@@ -0,0 +1,177 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cpu.Registers;
+import memory.MCU;
+
+/**
+ * A complete simulated machine: registers, memory (with cache) and the CPU
+ * that runs on them. A machine can be forked into children that share its
+ * memory pages copy-on-write, so "what-if" runs from the same state (a
+ * different cache size, different keyboard input, ...) do not copy memory.
+ * Every machine keeps its own statistics and can run on its own thread.
+ */
+public class Machine implements Runnable {
+
+    private final String name;
+    private final Registers registers;
+    private final MCU mcu;
+    private final CPU cpu;
+
+    // upper bound on instructions executed by run()
+    private long maxSteps = Long.MAX_VALUE;
+    // paces run(); unlimited unless setSpeed() is called
+    private final SpeedGovernor governor = new SpeedGovernor();
+    // wall clock time spent in the last run(), in nanoseconds
+    private long runNanos;
+    // error that stopped the last run(), if any
+    private Exception failure;
+
+    public Machine(String name) {
+        this(name, new Registers(), new MCU());
+    }
+
+    public Machine(String name, Registers registers, MCU mcu) {
+        this.name = name;
+        this.registers = registers;
+        this.mcu = mcu;
+        this.cpu = new CPU(registers, mcu);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Registers getRegisters() {
+        return registers;
+    }
+
+    public MCU getMCU() {
+        return mcu;
+    }
+
+    public CPU getCPU() {
+        return cpu;
+    }
+
+    public void setMaxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * @param instructionsPerSecond
+     *            pace for run(), SpeedGovernor.UNLIMITED for full speed
+     */
+    public void setSpeed(double instructionsPerSecond) {
+        governor.setTargetRate(instructionsPerSecond);
+    }
+
+    public SpeedGovernor getGovernor() {
+        return governor;
+    }
+
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Fork a single child with the same cache size. The machine must not be
+     * running while it is forked.
+     */
+    public Machine fork(String childName) {
+        return fork(childName, mcu.getCache().getCapacity());
+    }
+
+    /**
+     * Fork a single child whose cache has the given number of lines.
+     */
+    public Machine fork(String childName, int cacheLines) {
+        Machine child = new Machine(childName, new Registers(registers), mcu.fork(cacheLines));
+        // the timers are relative to the cycle counter
+        child.cpu.setCycleCount(cpu.getCycleCount());
+        child.maxSteps = maxSteps;
+        return child;
+    }
+
+    /**
+     * Fork n children named name#0 .. name#(n-1).
+     */
+    public List<Machine> fork(int n) {
+        List<Machine> children = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            children.add(fork(name + "#" + i));
+        }
+        return children;
+    }
+
+    /**
+     * Run until HLT or maxSteps instructions, then flush the printer. Errors
+     * are kept in getFailure() so the machine can be used directly as a
+     * thread body.
+     */
+    @Override
+    public void run() {
+        failure = null;
+        long start = System.nanoTime();
+        try {
+            if (governor.isUnlimited()) {
+                cpu.runUntilHalt(maxSteps);
+            } else {
+                runPaced();
+            }
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            mcu.getPrinter().flush();
+        }
+        runNanos = System.nanoTime() - start;
+    }
+
+    private void runPaced() {
+        long start = cpu.getInstructionCount();
+        governor.reset();
+        while (true) {
+            long remaining = maxSteps - (cpu.getInstructionCount() - start);
+            if (remaining <= 0) {
+                break;
+            }
+            long batch = governor.nextBatch(remaining);
+            long executed = cpu.runUntilHalt(batch);
+            governor.pace(executed);
+            if (cpu.isHalted() || executed < batch || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Run every machine on its own thread and wait for all of them.
+     */
+    public static void runAll(List<Machine> machines) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(machines.size());
+        for (Machine machine : machines) {
+            Thread thread = new Thread(machine, machine.getName());
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * @return one line of statistics for this machine
+     */
+    public String getStatistics() {
+        long accesses = mcu.getCacheHits() + mcu.getCacheMisses();
+        double hitRate = accesses == 0 ? 0 : 100.0 * mcu.getCacheHits() / accesses;
+        String speed = governor.isUnlimited() ? ""
+                : String.format(", %.0f / %.0f instructions/s", runNanos == 0 ? 0 : cpu.getInstructionCount() * 1e9 / runNanos,
+                        governor.getTargetRate());
+        return String.format("%s: instructions=%d, cache hits=%d, misses=%d (%.1f%% hit), pages copied=%d, time=%.3f ms%s%s",
+                name, cpu.getInstructionCount(), mcu.getCacheHits(), mcu.getCacheMisses(), hitRate,
+                mcu.getPageCopies(), runNanos / 1e6, speed, failure == null ? "" : ", failed: " + failure.getMessage());
+    }
+}
@@ -1,81 +1,52 @@
 package main;
 
-import cpu.Registers;
-import memory.MCU;
-import java.util.Scanner;
-
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Runs Program 1 headless: the numbers (and optionally a target) come from
+ * a batch input file, or standard input, and are fed to the keyboard of
+ * the simulated machine.<br/>
+ * Usage: java main.Main [input file] [instructions per second, 0 for full
+ * speed]
+ */
 public class Main {
 
     public static void main(String[] args) throws Exception {
-
-        Registers registers = new Registers();
-        MCU mcu = new MCU();
-        CPU cpu = new CPU(registers, mcu);
-
-        registers.setX1(32);
-
-        Scanner sc = new Scanner(System.in);
-
-        int[] values = new int[20];
-
-        System.out.println("Enter 20 numbers:");
-
-        // Input + store in memory
-        for (int i = 0; i < 20; i++) {
-            values[i] = sc.nextInt();
-            mcu.storeIntoMemory(40 + i, values[i]);
-        }
-
-        System.out.println("\nStored values:");
-        for (int i = 0; i < 20; i++) {
-            System.out.print(values[i] + " ");
+        String text = args.length > 0 ? new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8)
+                : readStandardInput();
+        int[] numbers = Program1.parseNumbers(text);
+
+        Machine machine = new Machine("program1");
+        machine.getMCU().setCacheTrace(false);
+        machine.setSpeed(args.length > 1 ? Double.parseDouble(args[1]) : SpeedGovernor.UNLIMITED);
+        try {
+            Program1.start(machine.getCPU(), numbers);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
         }
-
-        System.out.println("\n\nEnter target value:");
-        int target = sc.nextInt();
-
-        // Load first value using CPU
-        int inst = Integer.parseInt("0000010001001000", 2); // LDR R0,1,8
-        mcu.storeIntoMemory(10, inst);
-
-        registers.setPC(10);
-        cpu.step(); // R0 = first value
-
-        int bestValue = registers.getR0();
-        int bestDiff = Math.abs(bestValue - target);
-
-        // Process remaining values
-        for (int i = 1; i < 20; i++) {
-
-            // Update address using X1
-            registers.setX1(32 + i);
-
-            mcu.storeIntoMemory(11, inst); // reuse LDR
-            registers.setPC(11);
-            cpu.step();
-
-            int value = registers.getR0();
-            int diff = Math.abs(value - target);
-
-            if (diff < bestDiff) {
-                bestDiff = diff;
-                bestValue = value;
+        machine.run();
+        machine.getMCU().getPrinter().flush();
+
+        System.out.println();
+        if (machine.getFailure() != null || !Program1.isSearched(machine.getMCU())) {
+            System.out.println(String.format("Program 1 did not finish: PC=%06o, %d of %d numbers read",
+                    machine.getRegisters().getPC(), Program1.numbersRead(machine.getMCU()), Program1.COUNT));
+        } else {
+            if (numbers.length > Program1.COUNT) {
+                int target = numbers[Program1.COUNT];
+                int closest = Program1.readClosest(machine.getMCU());
+                System.out.println("Target: " + target);
+                System.out.println(closest == target ? "Found exact match: " + target : "Closest value: " + closest);
             }
         }
-
-        boolean exactFound = false;
-for (int i = 0; i < 20; i++) {
-    if (values[i] == target) {
-        exactFound = true;
-        break;
+        System.out.println(machine.getStatistics());
     }
-}
 
-System.out.println("\nTarget: " + target);
-if (exactFound) {
-    System.out.println("Found exact match: " + target);
-} else {
-    System.out.println("Closest value: " + bestValue);
-}
+    private static String readStandardInput() throws IOException {
+        return new String(System.in.readAllBytes(), StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
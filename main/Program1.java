@@ -0,0 +1,209 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import memory.MCU;
+import util.Const;
+import util.LegacyCode;
+
+/**
+ * Program 1 (Const.Pre and Const.PG1_20) on the simulated machine: it
+ * reads COUNT comma separated numbers from the keyboard, echoes each one
+ * to the printer and stores them from NUMBERS on, then sets DONE to 1.
+ * PG1_20 falls through into the search routine at SEARCH, which stores the
+ * number closest to TARGET (the first one on a tie) in CLOSEST, sets DONE
+ * to 2 and halts, so the search is timed with the rest of the run.<br/>
+ * PG1_20 is written in the legacy encoding and goes through LegacyCode
+ * when it is loaded; the search routine is in the CPU's encoding. The
+ * input comes from a batch file: any text, of which the first COUNT
+ * integers are the numbers and the next one, if any, is the target.
+ */
+public class Program1 {
+
+    public static final int START = 300;
+    /** the search routine, right after the last word of PG1_20 */
+    public static final int SEARCH = 371;
+    /** the HLT at the end of the search */
+    public static final int END = SEARCH + 25;
+    public static final int COUNT = 20;
+    /** first address of the numbers */
+    public static final int NUMBERS = 7;
+    /** where the next number goes, starts at NUMBERS */
+    public static final int POINTER = 29;
+    /** 1 once all numbers are read, 2 once the search is done, Pre(30) */
+    public static final int DONE = 30;
+    /** the number searched for, stored by start() */
+    public static final int TARGET = SEARCH + 26;
+    /** the closest number, written by the search */
+    public static final int CLOSEST = SEARCH + 27;
+    public static final String DEFAULT_INPUT = "prog1.txt";
+
+    // holds SEARCH: the routine addresses its own words through X3, as an
+    // address field only reaches 0-31
+    private static final int SEARCH_BASE = NUMBERS + COUNT;
+    // offsets of the search routine's variables from SEARCH
+    private static final int PTR = 28;
+    private static final int BEST = 29;
+    private static final int DIFF = 30;
+
+    private static final int LDR = 1;
+    private static final int STR = 2;
+    private static final int LDA = 3;
+    private static final int SMR = 5;
+    private static final int AIR = 6;
+    private static final int JZ = 8;
+    private static final int SOB = 14;
+    private static final int JGE = 15;
+    private static final int LDX = 33;
+    private static final int NOT = 61;
+
+    // R3 counts the numbers, R2 is 0 until the first one is taken, X3 is
+    // SEARCH; PTR walks the numbers, BEST is the smallest distance so far
+    private static final int[] SEARCH_CODE = {
+            word(LDX, 0, 3, 0, SEARCH_BASE), // X3 = SEARCH
+            word(LDA, 0, 0, 0, NUMBERS),
+            word(STR, 0, 3, 0, PTR),
+            word(LDA, 3, 0, 0, COUNT),
+            word(LDA, 2, 0, 0, 0),
+            word(LDR, 0, 3, 1, PTR), // 5: r0 = number - target
+            word(SMR, 0, 3, 0, TARGET - SEARCH),
+            word(JGE, 0, 3, 0, 10),
+            word(NOT, 0, 0, 0, 0), // r0 = -r0
+            word(AIR, 0, 0, 0, 1),
+            word(STR, 0, 3, 0, DIFF), // 10
+            word(JZ, 2, 3, 0, 14), // the first number is always taken
+            word(SMR, 0, 3, 0, BEST),
+            word(JGE, 0, 3, 0, 19), // not closer
+            word(LDR, 0, 3, 0, DIFF), // 14: take it
+            word(STR, 0, 3, 0, BEST),
+            word(LDR, 0, 3, 1, PTR),
+            word(STR, 0, 3, 0, CLOSEST - SEARCH),
+            word(LDA, 2, 0, 0, 1),
+            word(LDR, 0, 3, 0, PTR), // 19: next number
+            word(AIR, 0, 0, 0, 1),
+            word(STR, 0, 3, 0, PTR),
+            word(SOB, 3, 3, 0, 5),
+            word(LDA, 0, 0, 0, 2),
+            word(STR, 0, 0, 0, DONE),
+            0, // HLT
+    };
+
+    private static int word(int opcode, int r, int ix, int i, int address) {
+        return opcode << 10 | r << 8 | ix << 6 | i << 5 | address;
+    }
+
+    /**
+     * Store Pre, the translated PG1_20 and the search routine through the
+     * cache, so a machine that already ran it starts over. PC is not
+     * changed.
+     */
+    public static void load(MCU mcu) {
+        for (Map.Entry<String, Integer> entry : Const.Pre.entrySet()) {
+            mcu.storeIntoCache(Integer.parseInt(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : Const.PG1_20.entrySet()) {
+            mcu.storeIntoCache(Integer.parseInt(entry.getKey()), LegacyCode.translate(entry.getValue()));
+        }
+        for (int i = 0; i < COUNT; i++) {
+            mcu.storeIntoCache(NUMBERS + i, 0);
+        }
+        mcu.storeIntoCache(SEARCH_BASE, SEARCH);
+        for (int i = 0; i < SEARCH_CODE.length; i++) {
+            mcu.storeIntoCache(SEARCH + i, SEARCH_CODE[i]);
+        }
+        for (int address = TARGET; address <= SEARCH + DIFF; address++) {
+            mcu.storeIntoCache(address, 0);
+        }
+    }
+
+    /**
+     * @return every unsigned integer in text, in order
+     */
+    public static int[] parseNumbers(String text) {
+        List<Integer> numbers = new ArrayList<>();
+        int value = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+            } else if (value >= 0) {
+                numbers.add(value);
+                value = -1;
+            }
+        }
+        return numbers.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return what the program expects on the keyboard: the first COUNT
+     *         numbers, each followed by a comma
+     * @throws IllegalArgumentException
+     *             if there are fewer than COUNT numbers
+     */
+    public static String keyboardInput(int[] numbers) {
+        if (numbers.length < COUNT) {
+            throw new IllegalArgumentException("Program 1 needs " + COUNT + " numbers, found " + numbers.length);
+        }
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < COUNT; i++) {
+            input.append(numbers[i]).append(',');
+        }
+        return input.toString();
+    }
+
+    /**
+     * Load the program, queue the input, store the target (0 if there is
+     * none) and point PC at it.
+     */
+    public static void start(CPU cpu, int[] numbers) {
+        MCU mcu = cpu.getMCU();
+        load(mcu);
+        mcu.getKeyboard().clear();
+        mcu.getKeyboard().feed(keyboardInput(numbers));
+        mcu.storeIntoCache(TARGET, numbers.length > COUNT ? numbers[COUNT] : 0);
+        cpu.getRegisters().setPC(START);
+    }
+
+    /**
+     * @return the numbers the program has stored
+     */
+    public static int[] readNumbers(MCU mcu) {
+        int[] numbers = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            numbers[i] = mcu.fetchFromMemory(NUMBERS + i);
+        }
+        return numbers;
+    }
+
+    /**
+     * @return true once all numbers are read
+     */
+    public static boolean isDone(MCU mcu) {
+        return mcu.fetchFromMemory(DONE) >= 1;
+    }
+
+    /**
+     * @return true once the search has stored CLOSEST
+     */
+    public static boolean isSearched(MCU mcu) {
+        return mcu.fetchFromMemory(DONE) == 2;
+    }
+
+    /**
+     * @return the number the search found closest to TARGET
+     */
+    public static int readClosest(MCU mcu) {
+        return mcu.fetchFromMemory(CLOSEST);
+    }
+
+    /**
+     * @return how many numbers have been stored, from the program's own
+     *         pointer; safe to call while it runs
+     */
+    public static int numbersRead(MCU mcu) {
+        return Math.max(0, Math.min(COUNT, mcu.fetchFromMemory(POINTER) - NUMBERS));
+    }
+
+}
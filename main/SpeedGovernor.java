@@ -0,0 +1,172 @@
+package main;
+
+/**
+ * Paces a run at a target number of instructions per second.<br/>
+ * The run loop asks nextBatch() how many instructions to execute, runs
+ * them, and hands the count to pace(), which sleeps until the time those
+ * instructions are due. Batches are sized to last about SLICE_MILLIS, so
+ * a fast target sleeps once per batch instead of once per instruction,
+ * and the deadline is kept from the start of the run so rounding in
+ * single sleeps does not add up. After a long pause (waiting for input,
+ * a debugger) the schedule restarts instead of racing to catch up.<br/>
+ * A target of UNLIMITED (0) never sleeps.<br/>
+ * Owned by the thread that runs the CPU; the target may be changed and
+ * the achieved rate read from any thread.
+ */
+public class SpeedGovernor {
+
+    public static final double UNLIMITED = 0;
+
+    /** time one batch should take at the target rate */
+    public static final int SLICE_MILLIS = 10;
+
+    /** how far behind schedule before the schedule restarts */
+    private static final long MAX_LAG_NANOS = 250_000_000L;
+
+    /** how often the achieved rate is measured */
+    private static final long SAMPLE_NANOS = 500_000_000L;
+
+    private volatile double targetRate;
+    private volatile double achievedRate;
+
+    // run thread only
+    private double scheduledRate;
+    private long scheduleStart;
+    private long scheduledInstructions;
+    private long sampleStart;
+    private long sampleInstructions;
+    // set by wakeUp(), ends the current or next sleep
+    private boolean woken;
+
+    public SpeedGovernor() {
+        this(UNLIMITED);
+    }
+
+    public SpeedGovernor(double targetRate) {
+        setTargetRate(targetRate);
+        reset();
+    }
+
+    /**
+     * @param targetRate
+     *            instructions per second, UNLIMITED for full speed
+     */
+    public void setTargetRate(double targetRate) {
+        if (targetRate < 0 || Double.isNaN(targetRate)) {
+            throw new IllegalArgumentException("Invalid instructions per second: " + targetRate);
+        }
+        this.targetRate = targetRate;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public boolean isUnlimited() {
+        return targetRate == UNLIMITED;
+    }
+
+    /**
+     * @return instructions per second measured over the last half second
+     *         of running
+     */
+    public double getAchievedRate() {
+        return achievedRate;
+    }
+
+    /**
+     * Start a new schedule, e.g. at the start of a run.
+     */
+    public void reset() {
+        long now = System.nanoTime();
+        scheduledRate = targetRate;
+        scheduleStart = now;
+        scheduledInstructions = 0;
+        sampleStart = now;
+        sampleInstructions = 0;
+        achievedRate = 0;
+    }
+
+    /**
+     * @param limit
+     *            the most the caller wants to run before it checks its own
+     *            commands
+     * @return instructions to run before the next pace()
+     */
+    public long nextBatch(long limit) {
+        double rate = targetRate;
+        if (rate == UNLIMITED) {
+            return limit;
+        }
+        long batch = (long) (rate * SLICE_MILLIS / 1000);
+        return Math.max(1, Math.min(batch, limit));
+    }
+
+    /**
+     * Account for executed instructions and sleep until they are due.
+     * wakeUp() ends the sleep early; so does an interrupt, which is left set
+     * for the caller.
+     */
+    public void pace(long executed) {
+        long now = System.nanoTime();
+        sampleInstructions += executed;
+        if (now - sampleStart >= SAMPLE_NANOS) {
+            achievedRate = sampleInstructions * 1e9 / (now - sampleStart);
+            sampleStart = now;
+            sampleInstructions = 0;
+        }
+        double rate = targetRate;
+        if (rate != scheduledRate) {
+            // new target: schedule from here
+            scheduledRate = rate;
+            scheduleStart = now;
+            scheduledInstructions = 0;
+            return;
+        }
+        if (rate == UNLIMITED) {
+            return;
+        }
+        scheduledInstructions += executed;
+        long due = scheduleStart + (long) (scheduledInstructions * 1e9 / rate);
+        long wait = due - now;
+        if (wait < -MAX_LAG_NANOS) {
+            scheduleStart = now;
+            scheduledInstructions = 0;
+            return;
+        }
+        if (wait > 0) {
+            sleep(wait);
+        }
+    }
+
+    /**
+     * End the current or next sleep in pace(), e.g. to halt a slow run;
+     * callable from any thread.
+     */
+    public synchronized void wakeUp() {
+        woken = true;
+        notifyAll();
+    }
+
+    private synchronized void sleep(long nanos) {
+        long end = System.nanoTime() + nanos;
+        try {
+            while (!woken && nanos > 0) {
+                wait(nanos / 1_000_000, (int) (nanos % 1_000_000));
+                nanos = end - System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        woken = false;
+    }
+
+    /**
+     * @return e.g. "achieved 998 / requested 1000 instructions/s"
+     */
+    public String describe() {
+        double rate = targetRate;
+        return String.format("achieved %.0f / requested %s instructions/s", achievedRate,
+                rate == UNLIMITED ? "unlimited" : String.format("%.0f", rate));
+    }
+}
@@ -0,0 +1,12 @@
+package main;
+
+/**
+ * Notified by the CPU around every executed instruction.
+ */
+public interface StepListener {
+
+    default void beforeStep(CPU cpu) {
+    }
+
+    void afterStep(CPU cpu);
+}
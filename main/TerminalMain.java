@@ -0,0 +1,40 @@
+package main;
+
+import device.TerminalServer;
+import memory.MCU;
+
+/**
+ * Runs a program headless with its keyboard and printer on a localhost TCP
+ * port, so another process (a load test harness, telnet, nc) can drive it.
+ * The run ends at HLT, or when the program waits for input after the
+ * client disconnected.<br/>
+ * Usage: java main.TerminalMain [program file] [start PC, octal] [port]
+ * [instructions per second, 0 for full speed]
+ */
+public class TerminalMain {
+
+    public static void main(String[] args) throws Exception {
+        String programFile = args.length > 0 ? args[0] : "load.txt";
+        int startPC = args.length > 1 ? Integer.parseInt(args[1], 8) : Integer.parseInt("000016", 8);
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        double speed = args.length > 3 ? Double.parseDouble(args[3]) : SpeedGovernor.UNLIMITED;
+
+        Machine machine = new Machine("terminal");
+        MCU mcu = machine.getMCU();
+        mcu.setCacheTrace(false);
+        mcu.loadProgramFile(programFile);
+        machine.getRegisters().setPC(startPC);
+        machine.setSpeed(speed);
+
+        try (TerminalServer terminal = new TerminalServer(mcu.getKeyboard(), mcu.getPrinter(), port)) {
+            terminal.setCloseKeyboardOnDisconnect(true);
+            System.out.println("Terminal listening on localhost:" + terminal.getPort());
+            machine.run();
+            mcu.getPrinter().flush();
+            System.out.println();
+            System.out.println(machine.getStatistics());
+            System.out.println(String.format("terminal: connections=%d, bytes in=%d, bytes out=%d",
+                    terminal.getConnections(), terminal.getBytesIn(), terminal.getBytesOut()));
+        }
+    }
+}
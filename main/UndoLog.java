@@ -0,0 +1,565 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+import cpu.Registers;
+import device.InterruptController;
+import device.Printer;
+import device.PrinterSink;
+import memory.InputSource;
+import memory.MCU;
+import memory.MemoryWriteListener;
+import util.Const;
+
+/**
+ * Undo log that lets the CPU step backwards.<br/>
+ * For every instruction only the previous values of the registers and
+ * memory words it changed are recorded, as (key, old value) int pairs in a
+ * bounded ring buffer; the oldest instructions are forgotten when it is
+ * full. A key below CYCLES_KEY is a register index in Registers.saveTo()
+ * order, a key from MEMORY_KEY on is MEMORY_KEY + address. In between are
+ * the CPU cycle counter and the interrupt controller and timer state (see
+ * saveState()): CYCLES_KEY holds the cycles an instruction took when that
+ * is not 1, and STATE_KEY + 2 * index + 0 or 1 the low or high half of a
+ * changed state value.<br/>
+ * Every snapshotInterval instructions a copy-on-write snapshot of the
+ * machine is kept as well, so the CPU can jump back further than the ring
+ * buffer reaches by restoring a snapshot and re-executing forward.<br/>
+ * Devices are not part of either. The log puts itself in front of the
+ * MCU's input and keeps the device I/O of every instruction: the words
+ * read, the status words and the interrupt lines latched. Stepping back
+ * gives the characters read back to the keyboard and card reader, and
+ * re-executing feeds the logged input again with the printer and the
+ * other step listeners switched off, like ExecutionReplayer does. What
+ * the disk and DMA did cannot be undone, so the log refuses to step back
+ * over an instruction that used them.
+ */
+public class UndoLog implements StepListener, MemoryWriteListener, InputSource {
+
+    private static final int CYCLES_KEY = 1 << 8;
+    private static final int STATE_KEY = 1 << 9;
+    private static final int MEMORY_KEY = 1 << 16;
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10000;
+    public static final int DEFAULT_MAX_SNAPSHOTS = 64;
+
+    // device I/O events: kind << 40 | devid << 32 | value
+    private static final long IO_READ = 1;
+    private static final long IO_STATUS = 2;
+    private static final long IO_LATCH = 3;
+    private static final long IO_BARRIER = 4;
+    // devices whose I/O can be given back or fed again
+    private static final long REPLAYABLE_DEVICES = 1L << Const.DevId.KEYBOARD.getValue()
+            | 1L << Const.DevId.PRINTER.getValue() | 1L << Const.DevId.CARD.getValue()
+            | 1L << Const.DevId.TIMER.getValue() | 1L << Const.DevId.INTC.getValue();
+
+    /**
+     * snapshot of the whole machine after a given instruction count
+     */
+    private static class Snapshot {
+        final long instructionCount;
+        final Registers registers;
+        final MCU.MemorySnapshot memory;
+        // see saveState()
+        final long[] state;
+
+        Snapshot(long instructionCount, Registers registers, MCU.MemorySnapshot memory, long[] state) {
+            this.instructionCount = instructionCount;
+            this.registers = registers;
+            this.memory = memory;
+            this.state = state;
+        }
+    }
+
+    private final CPU cpu;
+
+    // (key, old value) pairs; head counts every int ever written
+    private final int[] data;
+    private final int dataMask;
+    private long head;
+
+    // start position in data of each recorded instruction
+    private final long[] frames;
+    private final int frameMask;
+    private long frameHead;
+    private long frameTail;
+
+    private final int[] before = new int[Registers.SAVED_REGISTERS];
+    private final int[] after = new int[Registers.SAVED_REGISTERS];
+    private final long[] stateBefore;
+    private final long[] stateAfter;
+    private boolean inStep;
+    private boolean rewinding;
+
+    private final int snapshotInterval;
+    private final int maxSnapshots;
+    private final ArrayDeque<Snapshot> snapshots = new ArrayDeque<>();
+
+    // device I/O in instruction order, ioCounts[i] being the instruction
+    // count of ioEvents[i]; entries older than every snapshot and frame
+    // are dropped
+    private long[] ioCounts = new long[64];
+    private long[] ioEvents = new long[64];
+    private int ioStart;
+    private int ioEnd;
+    // while re-executing, reads are served from the log from here on
+    private boolean replaying;
+    private int replayCursor;
+
+    private final InputSource loggedSource;
+    private final IntConsumer loggedLatchObserver;
+    private final IntConsumer loggedAccessObserver;
+
+    public UndoLog(CPU cpu) {
+        this(cpu, DEFAULT_CAPACITY, DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_MAX_SNAPSHOTS);
+    }
+
+    /**
+     * @param capacity
+     *            number of ints in the ring buffer, rounded up to a power of
+     *            two; every changed register or word takes two
+     */
+    public UndoLog(CPU cpu, int capacity, int snapshotInterval, int maxSnapshots) {
+        this.cpu = cpu;
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.data = new int[size];
+        this.dataMask = size - 1;
+        // an instruction changes at least PC, so at most size/2 frames fit
+        this.frames = new long[size / 2];
+        this.frameMask = size / 2 - 1;
+        this.snapshotInterval = snapshotInterval;
+        this.maxSnapshots = maxSnapshots;
+        this.stateBefore = new long[1 + cpu.getMCU().getInterrupts().getStateSize()];
+        this.stateAfter = new long[stateBefore.length];
+        MCU mcu = cpu.getMCU();
+        this.loggedSource = mcu.getInputSource();
+        this.loggedLatchObserver = mcu.getInterrupts().getLatchObserver();
+        this.loggedAccessObserver = mcu.getDevices().getAccessObserver();
+        mcu.setInputSource(this);
+        mcu.getInterrupts().setLatchObserver(this::logLatch);
+        mcu.getDevices().setAccessObserver(this::logAccess);
+        cpu.addStepListener(this);
+        mcu.addWriteListener(this);
+        takeSnapshot();
+    }
+
+    /**
+     * Stop recording.
+     */
+    public void detach() {
+        MCU mcu = cpu.getMCU();
+        cpu.removeStepListener(this);
+        mcu.removeWriteListener(this);
+        mcu.setInputSource(loggedSource);
+        mcu.getInterrupts().setLatchObserver(loggedLatchObserver);
+        mcu.getDevices().setAccessObserver(loggedAccessObserver);
+    }
+
+    @Override
+    public int read(int devid) {
+        if (replaying) {
+            return (int) replayed(IO_READ, devid, -1);
+        }
+        int value = loggedSource.read(devid);
+        logIO(IO_READ, devid, value);
+        return value;
+    }
+
+    @Override
+    public boolean awaitInput(int devid) {
+        return loggedSource.awaitInput(devid);
+    }
+
+    /**
+     * Buffers belong to the disk, which the log does not step back over, so
+     * they are not logged.
+     */
+    @Override
+    public int readBuffer(int devid, int index) {
+        return loggedSource.readBuffer(devid, index);
+    }
+
+    /**
+     * DMA transfers are barriers, so the file words are not logged either.
+     */
+    @Override
+    public int readFile(int[] words, int count) {
+        return loggedSource.readFile(words, count);
+    }
+
+    @Override
+    public int status(int devid) {
+        if (replaying) {
+            return (int) replayed(IO_STATUS, devid, 0);
+        }
+        int value = loggedSource.status(devid);
+        logIO(IO_STATUS, devid, value);
+        return value;
+    }
+
+    private void logLatch(int lines) {
+        if (loggedLatchObserver != null) {
+            loggedLatchObserver.accept(lines);
+        }
+        if (!replaying) {
+            logIO(IO_LATCH, 0, lines);
+        }
+    }
+
+    private void logAccess(int devid) {
+        if (loggedAccessObserver != null) {
+            loggedAccessObserver.accept(devid);
+        }
+        if (replaying || (REPLAYABLE_DEVICES & (1L << devid)) != 0) {
+            return;
+        }
+        long count = cpu.getInstructionCount();
+        if (ioEnd > ioStart && ioCounts[ioEnd - 1] == count && ioEvents[ioEnd - 1] >>> 40 == IO_BARRIER) {
+            return;
+        }
+        logIO(IO_BARRIER, devid, 0);
+    }
+
+    private void logIO(long kind, int devid, int value) {
+        if (ioEnd == ioEvents.length) {
+            if (ioStart > ioEvents.length / 2) {
+                System.arraycopy(ioCounts, ioStart, ioCounts, 0, ioEnd - ioStart);
+                System.arraycopy(ioEvents, ioStart, ioEvents, 0, ioEnd - ioStart);
+                ioEnd -= ioStart;
+                ioStart = 0;
+            } else {
+                ioCounts = Arrays.copyOf(ioCounts, ioEvents.length * 2);
+                ioEvents = Arrays.copyOf(ioEvents, ioEvents.length * 2);
+            }
+        }
+        ioCounts[ioEnd] = cpu.getInstructionCount();
+        ioEvents[ioEnd] = kind << 40 | (long) devid << 32 | (value & 0xFFFFFFFFL);
+        ioEnd++;
+    }
+
+    /**
+     * @return the logged value of the current instruction's read or status
+     *         of devid, or missing if there is none
+     */
+    private long replayed(long kind, int devid, long missing) {
+        long count = cpu.getInstructionCount();
+        while (replayCursor < ioEnd && ioCounts[replayCursor] < count) {
+            replayCursor++;
+        }
+        for (int i = replayCursor; i < ioEnd && ioCounts[i] == count; i++) {
+            long event = ioEvents[i];
+            if (event >>> 40 == kind && (int) (event >>> 32 & 0xFF) == devid) {
+                replayCursor = i + 1;
+                return (int) event;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Raise the lines logged as latched by the current instruction.
+     */
+    private void replayLatches() {
+        long count = cpu.getInstructionCount();
+        while (replayCursor < ioEnd && ioCounts[replayCursor] < count) {
+            replayCursor++;
+        }
+        for (int i = replayCursor; i < ioEnd && ioCounts[i] == count; i++) {
+            if (ioEvents[i] >>> 40 == IO_LATCH) {
+                raiseLines((int) ioEvents[i]);
+            }
+        }
+    }
+
+    /**
+     * Forget the I/O of the instructions from count on, newest first: input
+     * goes back to the keyboard and card reader.
+     *
+     * @return the interrupt lines those instructions latched
+     */
+    private int giveBack(long count) {
+        MCU mcu = cpu.getMCU();
+        int lines = 0;
+        while (ioEnd > ioStart && ioCounts[ioEnd - 1] >= count) {
+            ioEnd--;
+            long event = ioEvents[ioEnd];
+            int devid = (int) (event >>> 32 & 0xFF);
+            int value = (int) event;
+            if (event >>> 40 == IO_LATCH) {
+                lines |= value;
+            } else if (event >>> 40 == IO_READ && value >= 0) {
+                if (devid == Const.DevId.KEYBOARD.getValue()) {
+                    mcu.getKeyboard().unread((char) value);
+                } else if (devid == Const.DevId.CARD.getValue()) {
+                    mcu.getCardReader().unread();
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return true if an instruction from count on used a device that
+     *         cannot be undone
+     */
+    private boolean hasBarrier(long count) {
+        for (int i = ioEnd - 1; i >= ioStart && ioCounts[i] >= count; i--) {
+            if (ioEvents[i] >>> 40 == IO_BARRIER) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void raiseLines(int lines) {
+        for (int line = 0; lines != 0; line++, lines >>>= 1) {
+            if ((lines & 1) != 0) {
+                cpu.getMCU().getInterrupts().raise(line);
+            }
+        }
+    }
+
+    /**
+     * @return number of instructions that can be undone from the ring buffer
+     */
+    public long getUndoDepth() {
+        return frameHead - frameTail;
+    }
+
+    @Override
+    public void beforeStep(CPU cpu) {
+        cpu.getRegisters().saveTo(before);
+        saveState(stateBefore);
+        frames[(int) (frameHead & frameMask)] = head;
+        inStep = true;
+    }
+
+    @Override
+    public void onWrite(int address, int oldValue, int newValue) {
+        if (inStep && !rewinding) {
+            push(MEMORY_KEY + address, oldValue);
+        }
+    }
+
+    @Override
+    public void afterStep(CPU cpu) {
+        inStep = false;
+        cpu.getRegisters().saveTo(after);
+        for (int i = 0; i < Registers.SAVED_REGISTERS; i++) {
+            if (before[i] != after[i]) {
+                push(i, before[i]);
+            }
+        }
+        saveState(stateAfter);
+        long cycles = stateAfter[0] - stateBefore[0];
+        if (cycles != 1) {
+            // an idle skip to the next timer tick is at most one interval
+            push(CYCLES_KEY, (int) cycles);
+        }
+        for (int i = 1; i < stateAfter.length; i++) {
+            if (stateBefore[i] != stateAfter[i]) {
+                push(STATE_KEY + 2 * i, (int) stateBefore[i]);
+                push(STATE_KEY + 2 * i + 1, (int) (stateBefore[i] >>> 32));
+            }
+        }
+        frameHead++;
+        // forget instructions whose data has been overwritten
+        while (frameTail < frameHead
+                && (frameHead - frameTail > frames.length || head - frames[(int) (frameTail & frameMask)] > data.length)) {
+            frameTail++;
+        }
+        if (!rewinding && cpu.getInstructionCount() % snapshotInterval == 0) {
+            takeSnapshot();
+        }
+    }
+
+    /**
+     * state[0] is the CPU cycle counter, the rest the interrupt controller
+     * and its timers (InterruptController.saveTo())
+     */
+    private void saveState(long[] state) {
+        state[0] = cpu.getCycleCount();
+        cpu.getMCU().getInterrupts().saveTo(state, 1);
+    }
+
+    private void loadState(long[] state) {
+        cpu.setCycleCount(state[0]);
+        cpu.getMCU().getInterrupts().loadFrom(state, 1);
+    }
+
+    private void push(int key, int oldValue) {
+        data[(int) (head & dataMask)] = key;
+        data[(int) ((head + 1) & dataMask)] = oldValue;
+        head += 2;
+    }
+
+    private void takeSnapshot() {
+        long count = cpu.getInstructionCount();
+        if (!snapshots.isEmpty() && snapshots.peekLast().instructionCount >= count) {
+            return;
+        }
+        long[] state = new long[stateBefore.length];
+        saveState(state);
+        snapshots.addLast(new Snapshot(count, new Registers(cpu.getRegisters()), cpu.getMCU().snapshotMemory(), state));
+        if (snapshots.size() > maxSnapshots) {
+            snapshots.removeFirst();
+            // I/O older than the oldest snapshot and frame is not needed
+            long oldest = Math.min(snapshots.peekFirst().instructionCount, count - getUndoDepth());
+            while (ioStart < ioEnd && ioCounts[ioStart] < oldest) {
+                ioStart++;
+            }
+        }
+    }
+
+    /**
+     * Undo the last instruction.
+     *
+     * @return false if there is no earlier state to go back to, or if the
+     *         instruction used the disk or DMA
+     */
+    public boolean stepBack() {
+        if (hasBarrier(cpu.getInstructionCount() - 1)) {
+            return false;
+        }
+        if (frameHead == frameTail) {
+            return cpu.getInstructionCount() > 0 && goBackTo(cpu.getInstructionCount() - 1);
+        }
+        frameHead--;
+        long start = frames[(int) (frameHead & frameMask)];
+        Registers registers = cpu.getRegisters();
+        MCU mcu = cpu.getMCU();
+        registers.saveTo(after);
+        saveState(stateAfter);
+        long cycles = 1;
+        rewinding = true;
+        try {
+            // undo in reverse order so the oldest value of a word wins
+            for (long p = head - 2; p >= start; p -= 2) {
+                int key = data[(int) (p & dataMask)];
+                int oldValue = data[(int) ((p + 1) & dataMask)];
+                if (key >= MEMORY_KEY) {
+                    mcu.restoreWord(key - MEMORY_KEY, oldValue);
+                } else if (key >= STATE_KEY) {
+                    int i = (key - STATE_KEY) >> 1;
+                    if ((key & 1) == 0) {
+                        stateAfter[i] = (stateAfter[i] & ~0xFFFFFFFFL) | (oldValue & 0xFFFFFFFFL);
+                    } else {
+                        stateAfter[i] = (stateAfter[i] & 0xFFFFFFFFL) | ((long) oldValue << 32);
+                    }
+                } else if (key == CYCLES_KEY) {
+                    cycles = oldValue;
+                } else {
+                    after[key] = oldValue;
+                }
+            }
+        } finally {
+            rewinding = false;
+        }
+        registers.loadFrom(after);
+        stateAfter[0] -= cycles;
+        loadState(stateAfter);
+        head = start;
+        cpu.setInstructionCount(cpu.getInstructionCount() - 1);
+        cpu.setHalted(false);
+        // lines latched by the undone instruction are latched again
+        raiseLines(giveBack(cpu.getInstructionCount()));
+        return true;
+    }
+
+    /**
+     * Step back until the predicate accepts the PC (a breakpoint) or
+     * maxSteps instructions have been undone.
+     *
+     * @return number of instructions undone
+     */
+    public long runBackTo(IntPredicate stopAtPC, long maxSteps) {
+        long steps = 0;
+        while (steps < maxSteps && stepBack()) {
+            steps++;
+            if (stopAtPC.test(cpu.getRegisters().getPC())) {
+                break;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Jump back to the state after the given number of instructions by
+     * restoring the nearest earlier snapshot and executing forward with the
+     * logged input. Nothing is printed, faults are not reported and the
+     * other step listeners are not called while executing forward.
+     *
+     * @return false if no snapshot is old enough, or if an instruction
+     *         since the snapshot used the disk or DMA
+     */
+    public boolean goBackTo(long instructionCount) {
+        Snapshot snapshot = null;
+        for (Iterator<Snapshot> it = snapshots.descendingIterator(); it.hasNext();) {
+            Snapshot s = it.next();
+            if (s.instructionCount <= instructionCount) {
+                snapshot = s;
+                break;
+            }
+        }
+        if (snapshot == null || instructionCount > cpu.getInstructionCount()
+                || hasBarrier(snapshot.instructionCount)) {
+            return false;
+        }
+        while (snapshots.peekLast() != snapshot) {
+            snapshots.removeLast();
+        }
+        MCU mcu = cpu.getMCU();
+        InterruptController interrupts = mcu.getInterrupts();
+        int lines = giveBack(instructionCount) | interrupts.takeRaised();
+        cpu.getRegisters().loadFrom(savedValues(snapshot.registers));
+        mcu.restoreMemory(snapshot.memory);
+        loadState(snapshot.state);
+        cpu.setInstructionCount(snapshot.instructionCount);
+        cpu.setHalted(false);
+        head = 0;
+        frameHead = 0;
+        frameTail = 0;
+
+        Printer printer = mcu.getPrinter();
+        PrinterSink sink = printer.getSink();
+        InputSource input = mcu.getInputSource();
+        IntConsumer latchObserver = interrupts.getLatchObserver();
+        FaultListener faultListener = cpu.getFaultListener();
+        StepListener[] listeners = cpu.setStepListeners(this);
+        printer.setSink(PrinterSink.NONE);
+        // a recorder in front of the log must not see the input again
+        mcu.setInputSource(this);
+        interrupts.setLatchObserver(null);
+        cpu.setFaultListener(null);
+        replaying = true;
+        replayCursor = ioStart;
+        try {
+            while (cpu.getInstructionCount() < instructionCount) {
+                // lines raised meanwhile by other threads wait for the end
+                lines |= interrupts.takeRaised();
+                replayLatches();
+                cpu.step();
+            }
+        } finally {
+            replaying = false;
+            cpu.setFaultListener(faultListener);
+            interrupts.setLatchObserver(latchObserver);
+            mcu.setInputSource(input);
+            printer.setSink(sink);
+            cpu.setStepListeners(listeners);
+        }
+        raiseLines(lines);
+        return true;
+    }
+
+    private static int[] savedValues(Registers registers) {
+        int[] values = new int[Registers.SAVED_REGISTERS];
+        registers.saveTo(values);
+        return values;
+    }
+}
@@ -0,0 +1,64 @@
+package memory;
+
+/**
+ * Source of the words read by the IN instruction, the device status read
+ * by CHK and the device buffer words loaded from the memory-mapped I/O
+ * region. The MCU reads its own devices by default; a recorder or replayer
+ * can put itself in front of them.
+ */
+public interface InputSource {
+
+	/**
+	 * @param devid
+	 *            device id from the IN instruction
+	 * @return the next input word, or -1 if no input is available
+	 */
+	int read(int devid);
+
+	/**
+	 * Called by the CPU run loop after an IN found no input. A source that
+	 * is fed by another thread blocks here until input arrives; the default
+	 * returns at once, so the IN is simply executed again.
+	 *
+	 * @param devid
+	 * @return false if no more input will ever come
+	 */
+	default boolean awaitInput(int devid) {
+		return true;
+	}
+
+	/**
+	 * @param devid
+	 *            device id from the CHK instruction
+	 * @return the device status word, 0 if there is no such device
+	 */
+	default int status(int devid) {
+		return 0;
+	}
+
+	/**
+	 * @param devid
+	 *            device whose buffer is mapped
+	 * @param index
+	 *            word of the buffer
+	 * @return the buffer word, 0 if there is no such device
+	 */
+	default int readBuffer(int devid, int index) {
+		return 0;
+	}
+
+	/**
+	 * Read the host file of the DMA controller for a FILE_TO_MEMORY
+	 * transfer, one byte per word.
+	 *
+	 * @param words
+	 *            receives the words read
+	 * @param count
+	 *            words wanted
+	 * @return the number of words read, fewer than count at the end of the
+	 *         file, or -1 if there is no file or it cannot be read
+	 */
+	default int readFile(int[] words, int count) {
+		return -1;
+	}
+}
@@ -5,9 +5,19 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import device.CardReader;
+import device.DeviceBus;
+import device.DmaController;
+import device.InterruptController;
+import device.IntervalTimer;
+import device.Keyboard;
+import device.Printer;
+import device.PrinterSink;
+import device.SharedSink;
 import front.FrontPanel;
 import memory.Test.CacheLine;
 import util.Const;
@@ -15,90 +25,426 @@ import util.Const;
 /**
  * Memory Control Unit<br/>
  * Reserved Locations Of Memory:<br/>
- * 0 - Reserved for the Trap instruction for Part III.<br/>
+ * 0 - Address of the trap table for the TRAP instruction<br/>
  * 1 - Reserved for a machine fault<br/>
  * 2 - Store PC for Trap<br/>
- * 3 - NU<br/>
+ * 3 - Store PC for an interrupt<br/>
  * 4 - Store PC for Machine Fault<br/>
- * 5 - NU<br/>
+ * 5 - Store MSR for Machine Fault<br/>
+ * 6 - Store MSR for an interrupt<br/>
+ * 7 - Address of the interrupt handler<br/>
  */
 public class MCU {
 
 	/**
-	 * 16 bit words
+	 * 16 bit words, stored in pages of Const.MEMORY_PAGE_WORDS words. A page
+	 * may be shared with forked MCUs; it is copied before the first write
+	 * (copy-on-write) unless this MCU already owns it.
 	 */
-	ArrayList<Integer> memory;
+	int[][] pages;
+
+	/**
+	 * ownedPages[p] is true when pages[p] is private to this MCU.
+	 */
+	boolean[] ownedPages;
+
+	/**
+	 * number of words currently installed
+	 */
+	int memorySize;
 
 	/**
 	 * 16 block fully associative, unified cache
 	 */
 	Test cache;
 
-	String printerBuffer;
-	String keyboardBuffer;
-	String cardBuffer;
+	/**
+	 * print every cache hit/miss to stdout
+	 */
+	boolean cacheTrace = true;
+
+	long cacheHits;
+	long cacheMisses;
+	long pageCopies;
+
+	/**
+	 * standard devices, also registered on the device bus under their
+	 * Const.DevId
+	 */
+	Printer printer = new Printer();
+	Keyboard keyboard = new Keyboard();
+	CardReader cardReader = new CardReader();
+	DmaController dma = new DmaController(this);
+	InterruptController interrupts = new InterruptController(this);
+	IntervalTimer timer = new IntervalTimer(interrupts, Const.DevId.TIMER.getValue());
+
+	/**
+	 * devices for IN, OUT and CHK, indexed by devid
+	 */
+	DeviceBus devices = new DeviceBus();
+
+	/**
+	 * where IN gets its input from, the device bus unless replaced
+	 */
+	InputSource inputSource = new InputSource() {
+		@Override
+		public int read(int devid) {
+			return devices.read(devid);
+		}
+
+		@Override
+		public boolean awaitInput(int devid) {
+			return devices.awaitInput(devid);
+		}
+
+		@Override
+		public int status(int devid) {
+			return devices.status(devid);
+		}
+
+		@Override
+		public int readBuffer(int devid, int index) {
+			return devices.readBuffer(devid, index);
+		}
+
+		@Override
+		public int readFile(int[] words, int count) {
+			return dma.readFile(words, count);
+		}
+	};
+
+	/**
+	 * memory-mapped I/O region, null if none. Its base and size are kept in
+	 * plain fields so the cache path tests an address with one unsigned
+	 * compare; mmioSize is 0 when nothing is mapped, which no address passes.
+	 */
+	MmioRegion mmio;
+	int mmioBase;
+	int mmioSize;
+
+	/**
+	 * notified on every memory write
+	 */
+	MemoryWriteListener[] writeListeners = new MemoryWriteListener[0];
+
+	/**
+	 * resolved TRAP targets, kept up to date through writeListeners
+	 */
+	TrapVectorCache trapVectors = new TrapVectorCache(this);
+
+	/**
+	 * read and write watchpoints, tested on every data access through the
+	 * cache
+	 */
+	Watchpoints watchpoints = new Watchpoints();
 
-	public String getPrinterBuffer() {
-		return printerBuffer;
+	public Printer getPrinter() {
+		return printer;
 	}
 
-	public void setPrinterBuffer(String printerBuffer) {
-		this.printerBuffer = printerBuffer;
+	public DeviceBus getDevices() {
+		return devices;
 	}
 
+	public Keyboard getKeyboard() {
+		return keyboard;
+	}
+
+	/**
+	 * @return the keyboard input not read yet
+	 */
 	public String getKeyboardBuffer() {
-		return keyboardBuffer;
+		return keyboard.contents();
 	}
 
+	/**
+	 * replace the keyboard input not read yet
+	 */
 	public void setKeyboardBuffer(String keyboardBuffer) {
-		this.keyboardBuffer = keyboardBuffer;
+		this.keyboard.clear();
+		if (keyboardBuffer != null) {
+			this.keyboard.feed(keyboardBuffer);
+		}
+	}
+
+	public void addWriteListener(MemoryWriteListener listener) {
+		MemoryWriteListener[] listeners = Arrays.copyOf(writeListeners, writeListeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+		writeListeners = listeners;
+	}
+
+	public void removeWriteListener(MemoryWriteListener listener) {
+		MemoryWriteListener[] listeners = new MemoryWriteListener[writeListeners.length];
+		int n = 0;
+		for (MemoryWriteListener l : writeListeners) {
+			if (l != listener) {
+				listeners[n++] = l;
+			}
+		}
+		writeListeners = Arrays.copyOf(listeners, n);
 	}
 
-	public String getCardBuffer() {
-		return cardBuffer;
+	public TrapVectorCache getTrapVectors() {
+		return trapVectors;
 	}
 
-	public void setCardBuffer(String cardBuffer) {
-		this.cardBuffer = cardBuffer;
+	public Watchpoints getWatchpoints() {
+		return watchpoints;
+	}
+
+	public InputSource getInputSource() {
+		return inputSource;
+	}
+
+	public void setInputSource(InputSource inputSource) {
+		this.inputSource = inputSource;
+	}
+
+	/**
+	 *
+	 * Read one input word for the IN instruction.
+	 *
+	 * @param devid
+	 * @return the input word, or -1 if no input is available
+	 */
+	public int readInput(int devid) {
+		return inputSource.read(devid);
+	}
+
+	/**
+	 *
+	 * Wait until an IN that found no input may succeed.
+	 *
+	 * @param devid
+	 * @return false if no more input will ever come
+	 */
+	public boolean awaitInput(int devid) {
+		return inputSource.awaitInput(devid);
+	}
+
+	/**
+	 *
+	 * Read the DMA controller's host file for a FILE_TO_MEMORY transfer.
+	 *
+	 * @param words
+	 * @param count
+	 * @return the number of words read, or -1 if the file cannot be read
+	 */
+	public int readFile(int[] words, int count) {
+		return inputSource.readFile(words, count);
+	}
+
+	/**
+	 *
+	 * Write one output word for the OUT instruction.
+	 *
+	 * @param devid
+	 * @param word
+	 */
+	public void writeOutput(int devid, int word) {
+		devices.write(devid, word);
+	}
+
+	/**
+	 *
+	 * Device status word for the CHK instruction.
+	 *
+	 * @param devid
+	 * @return combination of the Device.STATUS_ bits, 0 for no device
+	 */
+	public int deviceStatus(int devid) {
+		return inputSource.status(devid);
+	}
+
+	/**
+	 * put the standard devices on the bus
+	 */
+	private void attachDevices() {
+		devices.register(Const.DevId.KEYBOARD.getValue(), keyboard);
+		devices.register(Const.DevId.PRINTER.getValue(), printer);
+		devices.register(Const.DevId.CARD.getValue(), cardReader);
+		devices.register(Const.DevId.DMA.getValue(), dma);
+		devices.register(Const.DevId.TIMER.getValue(), timer);
+		devices.register(Const.DevId.INTC.getValue(), interrupts);
+		keyboard.connectInterrupt(interrupts, Const.DevId.KEYBOARD.getValue());
+		cardReader.connectInterrupt(interrupts, Const.DevId.CARD.getValue());
+	}
+
+	/**
+	 *
+	 * Map the given devices into memory starting at base. Loads and stores
+	 * by the program (everything that goes through the cache) in the region
+	 * reach the devices instead of memory and are never cached; direct
+	 * memory access (DMA, the front panel) still sees the memory below.
+	 *
+	 * @param base
+	 * @param devids
+	 * @return the region
+	 */
+	public MmioRegion mapDevices(int base, int... devids) {
+		MmioRegion region = MmioRegion.layout(base, this.devices, devids);
+		setMmio(region);
+		return region;
+	}
+
+	/**
+	 * install a memory-mapped I/O region, or none if null
+	 */
+	public void setMmio(MmioRegion region) {
+		if (region != null && (region.getBase() <= Const.INTERRUPT_HANDLER_LOCATION
+				|| region.getBase() + region.getSize() > Const.MEMORY_WORDS_BOUND_EXPANDED)) {
+			throw new IllegalArgumentException("MMIO region " + region.getBase() + "+" + region.getSize()
+					+ " overlaps the reserved locations or lies outside memory");
+		}
+		// drop lines cached from the region before it was mapped
+		if (region != null) {
+			this.cache.removeIf(tag -> tag >= region.getBase() && tag < region.getBase() + region.getSize());
+		}
+		this.mmio = region;
+		this.mmioBase = region == null ? 0 : region.getBase();
+		this.mmioSize = region == null ? 0 : region.getSize();
+	}
+
+	public MmioRegion getMmio() {
+		return mmio;
+	}
+
+	public CardReader getCardReader() {
+		return cardReader;
+	}
+
+	public DmaController getDma() {
+		return dma;
+	}
+
+	public InterruptController getInterrupts() {
+		return interrupts;
+	}
+
+	public IntervalTimer getTimer() {
+		return timer;
 	}
 
 	public Test getCache() {
 		return cache;
 	}
 
+	public void setCache(Test cache) {
+		this.cache = cache;
+	}
+
+	public boolean isCacheTrace() {
+		return cacheTrace;
+	}
+
+	public void setCacheTrace(boolean cacheTrace) {
+		this.cacheTrace = cacheTrace;
+	}
+
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * @return number of shared pages this MCU had to copy before writing
+	 */
+	public long getPageCopies() {
+		return pageCopies;
+	}
+
 	/**
 	 * initialize the MCU, all memories set to 0, memories size 2048.
 	 */
 	public MCU() {
-		this.memory = new ArrayList<Integer>(Const.MEMORY_WORDS_BOUND);
-		for (int i = 0; i < Const.MEMORY_WORDS_BOUND; i++) {
-			this.memory.add(0);
+		int pageCount = Const.MEMORY_WORDS_BOUND_EXPANDED / Const.MEMORY_PAGE_WORDS;
+		this.pages = new int[pageCount][];
+		this.ownedPages = new boolean[pageCount];
+		this.memorySize = Const.MEMORY_WORDS_BOUND;
+		for (int p = 0; p < pageCount; p++) {
+			this.pages[p] = new int[Const.MEMORY_PAGE_WORDS];
+			this.ownedPages[p] = true;
 		}
 		this.cache = new Test();
-		// System.out.println("MCU init with a size of " + this.memory.size());
+		addWriteListener(this.trapVectors);
+		attachDevices();
+		// System.out.println("MCU init with a size of " + this.memorySize);
+	}
+
+	/**
+	 * Fork constructor: share every memory page with the parent and start
+	 * with a copy of the parent's cache lines in a cache of the given size.
+	 */
+	private MCU(MCU parent, int cacheLines) {
+		this.pages = parent.pages.clone();
+		this.ownedPages = new boolean[this.pages.length];
+		this.memorySize = parent.memorySize;
+		this.cache = parent.cache.copy(cacheLines);
+		this.cacheTrace = parent.cacheTrace;
+		// a forked machine prints to the same place as its parent, and may
+		// do so on its own thread
+		PrinterSink shared = SharedSink.of(parent.printer.getSink());
+		parent.printer.setSink(shared);
+		this.printer = new Printer(shared, Printer.DEFAULT_CAPACITY);
+		this.keyboard.feed(parent.keyboard.contents());
+		this.cardReader = new CardReader(parent.cardReader);
+		this.mmio = parent.mmio;
+		this.mmioBase = parent.mmioBase;
+		this.mmioSize = parent.mmioSize;
+		// interrupt mask, pending lines and timers, so a timer-driven
+		// program keeps taking interrupts in the child
+		long[] state = new long[parent.interrupts.getStateSize()];
+		parent.interrupts.saveTo(state, 0);
+		this.interrupts.loadFrom(state, 0);
+		addWriteListener(this.trapVectors);
+		attachDevices();
+	}
+
+	/**
+	 *
+	 * Fork this MCU. The child shares all memory pages with this MCU
+	 * copy-on-write, so neither side sees the other's later writes, and the
+	 * fork itself costs one page table copy instead of a memory copy.
+	 *
+	 * @return an independent MCU with the same memory, cache, buffers and
+	 *         interrupt state
+	 */
+	public MCU fork() {
+		return fork(this.cache.getCapacity());
+	}
+
+	/**
+	 *
+	 * Fork this MCU with a different cache size, keeping the most recent
+	 * cache lines that fit. The MCU must not be executing while it is forked.
+	 *
+	 * @param cacheLines
+	 * @return an independent MCU with the same memory and buffers
+	 */
+	public MCU fork(int cacheLines) {
+		// pages are shared from now on, so this MCU must copy them too
+		Arrays.fill(this.ownedPages, false);
+		return new MCU(this, cacheLines);
 	}
 
 	/**
 	 * expand the memory size to 4096
 	 */
 	public void expandMemorySize() {
-		if (this.memory != null && this.memory.size() > 0) {
-			this.memory.ensureCapacity(Const.MEMORY_WORDS_BOUND_EXPANDED);
-			for (int currentSize = memory.size(); currentSize < Const.MEMORY_WORDS_BOUND_EXPANDED; currentSize++) {
-				this.memory.add(0);
-			}
+		if (this.memorySize > 0) {
+			this.memorySize = Const.MEMORY_WORDS_BOUND_EXPANDED;
 		}
-		System.out.println("memory size has been expanded to " + memory.size());
+		System.out.println("memory size has been expanded to " + memorySize);
 	}
 
 	/**
 	 * @return current size of the memory
 	 */
 	public int getCurrentMemorySize() {
-		if (this.memory != null) {
-			return this.memory.size();
-		}
-		return 0;
+		return this.memorySize;
 	}
 
 	/**
@@ -110,7 +456,10 @@ public class MCU {
 	 *
 	 */
 	public int fetchFromMemory(int address) {
-		return this.memory.get(address);
+		if (address < 0 || address >= this.memorySize) {
+			throw new IndexOutOfBoundsException("Memory address " + address + " out of range " + this.memorySize);
+		}
+		return this.pages[address >>> Const.MEMORY_PAGE_SHIFT][address & (Const.MEMORY_PAGE_WORDS - 1)];
 	}
 
 	/**
@@ -121,41 +470,187 @@ public class MCU {
 	 * @param value
 	 */
 	public void storeIntoMemory(int address, int value) {
-		if (this.memory != null) {
-			this.memory.set(address, value);
+		if (address < 0 || address >= this.memorySize) {
+			throw new IndexOutOfBoundsException("Memory address " + address + " out of range " + this.memorySize);
+		}
+		int page = address >>> Const.MEMORY_PAGE_SHIFT;
+		if (!this.ownedPages[page]) {
+			this.pages[page] = this.pages[page].clone();
+			this.ownedPages[page] = true;
+			this.pageCopies++;
+		}
+		int offset = address & (Const.MEMORY_PAGE_WORDS - 1);
+		int oldValue = this.pages[page][offset];
+		this.pages[page][offset] = value;
+		for (MemoryWriteListener listener : this.writeListeners) {
+			listener.onWrite(address, oldValue, value);
+		}
+	}
+
+	/**
+	 *
+	 * Put back an earlier value of a word: store into memory and update the
+	 * cache line holding it, if any, without allocating a new line.
+	 *
+	 * @param address
+	 * @param value
+	 */
+	public void restoreWord(int address, int value) {
+		storeIntoMemory(address, value);
+		for (CacheLine line : cache.getCacheLines()) {
+			if (address == line.getTag()) {
+				line.setData(value);
+				return;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Block store for DMA: write len words into memory starting at address
+	 * and update the cache lines that hold any of them, without allocating
+	 * new lines.
+	 *
+	 * @param address
+	 * @param words
+	 * @param off
+	 * @param len
+	 */
+	public void storeBlock(int address, int[] words, int off, int len) {
+		if (address < 0 || len < 0 || address + len > this.memorySize) {
+			throw new IndexOutOfBoundsException("Memory block " + address + "+" + len + " out of range " + this.memorySize);
+		}
+		for (int i = 0; i < len; i++) {
+			storeIntoMemory(address + i, words[off + i]);
+		}
+		for (CacheLine line : cache.getCacheLines()) {
+			int index = line.getTag() - address;
+			if (index >= 0 && index < len) {
+				line.setData(words[off + index]);
+			}
 		}
 	}
 
+	/**
+	 *
+	 * Block fetch for DMA: read len words from memory starting at address.
+	 * The cache is write-through, so memory is always current.
+	 *
+	 * @param address
+	 * @param words
+	 * @param off
+	 * @param len
+	 */
+	public void fetchBlock(int address, int[] words, int off, int len) {
+		if (address < 0 || len < 0 || address + len > this.memorySize) {
+			throw new IndexOutOfBoundsException("Memory block " + address + "+" + len + " out of range " + this.memorySize);
+		}
+		for (int i = 0; i < len; i++) {
+			words[off + i] = fetchFromMemory(address + i);
+		}
+	}
+
+	/**
+	 * Memory and cache of an MCU at one point, taken with snapshotMemory().
+	 * The pages are shared copy-on-write with the MCU.
+	 */
+	public static final class MemorySnapshot {
+		private final int[][] pages;
+		private final int memorySize;
+		private final Test cache;
+
+		private MemorySnapshot(int[][] pages, int memorySize, Test cache) {
+			this.pages = pages;
+			this.memorySize = memorySize;
+			this.cache = cache;
+		}
+	}
+
+	/**
+	 *
+	 * Take a snapshot of memory and cache for stepping back. Unlike fork()
+	 * it costs one page table and cache copy and leaves the devices alone.
+	 * The MCU must not be executing.
+	 *
+	 * @return the snapshot, for restoreMemory()
+	 */
+	public MemorySnapshot snapshotMemory() {
+		// pages are shared from now on, so this MCU must copy them too
+		Arrays.fill(this.ownedPages, false);
+		return new MemorySnapshot(this.pages.clone(), this.memorySize, this.cache.copy(this.cache.getCapacity()));
+	}
+
+	/**
+	 *
+	 * Go back to the memory and cache of a snapshot. Memory pages are shared
+	 * with the snapshot copy-on-write, so the snapshot stays usable. Devices
+	 * are not touched: input read since the snapshot is given back by the
+	 * caller (UndoLog), and printed output has left the machine.
+	 *
+	 * @param snapshot
+	 */
+	public void restoreMemory(MemorySnapshot snapshot) {
+		this.pages = snapshot.pages.clone();
+		Arrays.fill(this.ownedPages, false);
+		this.memorySize = snapshot.memorySize;
+		this.cache = snapshot.cache.copy(snapshot.cache.getCapacity());
+		this.trapVectors.invalidate();
+	}
+
 	/**
 	 *
 	 * fetch a word from cache. If the word is not in cache, fetch it from
-	 * memory, then store it into cache.
+	 * memory, then store it into cache. Words in the memory-mapped I/O region
+	 * are read from their device.
 	 *
 	 * @param address
 	 * @return
 	 */
 	public int fetchFromCache(int address) {
+		if (Integer.compareUnsigned(address - this.mmioBase, this.mmioSize) < 0) {
+			return this.mmio.load(address - this.mmioBase, this.inputSource);
+		}
 		for (CacheLine line : cache.getCacheLines()) {
         if (address == line.getTag()) {
-            System.out.println("CACHE HIT: address=" + address + " data=" + line.getData());
+            cacheHits++;
+            if (cacheTrace) {
+                System.out.println("CACHE HIT: address=" + address + " data=" + line.getData());
+            }
+            if ((this.watchpoints.read[address >>> 6] & (1L << address)) != 0) {
+                this.watchpoints.hit(address, false, line.getData());
+            }
             return line.getData();
         }
     }
-    System.out.println("CACHE MISS: address=" + address + " fetching from memory");
+    cacheMisses++;
+    if (cacheTrace) {
+        System.out.println("CACHE MISS: address=" + address + " fetching from memory");
+    }
     int value = fetchFromMemory(address);
     cache.add(address, value);
+    if ((this.watchpoints.read[address >>> 6] & (1L << address)) != 0) {
+        this.watchpoints.hit(address, false, value);
+    }
     return value;
 	}
 
 	/**
 	 *
 	 * store into cache with replacement. Also store into memory simultaneously.
+	 * Words in the memory-mapped I/O region are written to their device.
 	 *
 	 * @param address
 	 * @param value
 	 */
 	public void storeIntoCache(int address, int value) {
+		if (Integer.compareUnsigned(address - this.mmioBase, this.mmioSize) < 0) {
+			this.mmio.store(address - this.mmioBase, value, this.devices);
+			return;
+		}
 		storeIntoMemory(address, value);
+		if ((this.watchpoints.write[address >>> 6] & (1L << address)) != 0) {
+			this.watchpoints.hit(address, true, value);
+		}
 		for (CacheLine line : cache.getCacheLines()) { // check every block the
 														// tag is already exist
 			if (address == line.getTag()) {
@@ -0,0 +1,16 @@
+package memory;
+
+/**
+ * Notified by the MCU whenever a memory word is written.
+ */
+public interface MemoryWriteListener {
+
+	/**
+	 * @param address
+	 * @param oldValue
+	 *            value before the write
+	 * @param newValue
+	 *            value after the write
+	 */
+	void onWrite(int address, int oldValue, int newValue);
+}
@@ -0,0 +1,170 @@
+package memory;
+
+import java.util.Arrays;
+
+import device.Device;
+import device.DeviceBus;
+
+/**
+ * Layout of the memory-mapped I/O region.<br/>
+ * Every mapped device gets a window of consecutive words: its status word,
+ * its data word and then the words of its buffer, if it exposes one:<br/>
+ * base + 0 - status (read only, same as CHK)<br/>
+ * base + 1 - data (a load is an IN, a store is an OUT)<br/>
+ * base + 2 .. - device buffer, Device.bufferWords() words<br/>
+ * The region is immutable, so forked MCUs share it.
+ */
+public class MmioRegion {
+
+	public static final int STATUS = -2;
+	public static final int DATA = -1;
+
+	private final int base;
+
+	/**
+	 * devid of every word of the region
+	 */
+	private final int[] devids;
+
+	/**
+	 * STATUS, DATA or the buffer index of every word of the region
+	 */
+	private final int[] registers;
+
+	/**
+	 * start of each device's window, -1 if the device is not mapped
+	 */
+	private final int[] windows = new int[DeviceBus.DEVICES];
+
+	/**
+	 *
+	 * Region with an explicit layout, e.g. read back from a log.
+	 *
+	 * @param base
+	 * @param devids
+	 *            devid of every word
+	 * @param registers
+	 *            STATUS, DATA or the buffer index of every word
+	 */
+	public MmioRegion(int base, int[] devids, int[] registers) {
+		if (devids.length != registers.length) {
+			throw new IllegalArgumentException("MMIO layout has " + devids.length + " devids for "
+					+ registers.length + " words");
+		}
+		this.base = base;
+		this.devids = devids.clone();
+		this.registers = registers.clone();
+		Arrays.fill(this.windows, -1);
+		for (int offset = devids.length - 1; offset >= 0; offset--) {
+			this.windows[devids[offset]] = base + offset;
+		}
+	}
+
+	/**
+	 *
+	 * Lay out windows for the given devices, in order, starting at base.
+	 *
+	 * @param base
+	 * @param bus
+	 *            the devices, asked for the size of their buffers
+	 * @param devids
+	 * @return the region
+	 */
+	public static MmioRegion layout(int base, DeviceBus bus, int... devids) {
+		int size = 0;
+		for (int devid : devids) {
+			size += 2 + bus.get(devid).bufferWords();
+		}
+		int[] owners = new int[size];
+		int[] registers = new int[size];
+		int offset = 0;
+		for (int devid : devids) {
+			int words = bus.get(devid).bufferWords();
+			for (int i = STATUS; i < words; i++) {
+				owners[offset] = devid;
+				registers[offset] = i;
+				offset++;
+			}
+		}
+		return new MmioRegion(base, owners, registers);
+	}
+
+	/**
+	 * @return a region with the same layout at another base address
+	 */
+	public MmioRegion moveTo(int newBase) {
+		return new MmioRegion(newBase, this.devids, this.registers);
+	}
+
+	public int getBase() {
+		return this.base;
+	}
+
+	public int getSize() {
+		return this.devids.length;
+	}
+
+	/**
+	 * @return devid of the word at offset from the base
+	 */
+	public int devidAt(int offset) {
+		return this.devids[offset];
+	}
+
+	/**
+	 * @return STATUS, DATA or the buffer index of the word at offset from the
+	 *         base
+	 */
+	public int registerAt(int offset) {
+		return this.registers[offset];
+	}
+
+	/**
+	 * @return address of the device's status word, -1 if it is not mapped
+	 */
+	public int windowOf(int devid) {
+		return this.windows[devid & (DeviceBus.DEVICES - 1)];
+	}
+
+	/**
+	 *
+	 * Read a word of the region. A data word load consumes input like IN;
+	 * with no input available it reads 0, so programs test the status word
+	 * first.
+	 *
+	 * @param offset
+	 * @param input
+	 *            where the status, data and buffer words come from
+	 * @return the word
+	 */
+	int load(int offset, InputSource input) {
+		int devid = this.devids[offset];
+		int register = this.registers[offset];
+		if (register == STATUS) {
+			return input.status(devid);
+		}
+		if (register == DATA) {
+			int value = input.read(devid);
+			return value < 0 ? 0 : value;
+		}
+		return input.readBuffer(devid, register);
+	}
+
+	/**
+	 *
+	 * Write a word of the region. Stores to a status word are ignored.
+	 *
+	 * @param offset
+	 * @param value
+	 * @param bus
+	 */
+	void store(int offset, int value, DeviceBus bus) {
+		int devid = this.devids[offset];
+		int register = this.registers[offset];
+		if (register == DATA) {
+			bus.write(devid, value);
+		} else if (register != STATUS) {
+			bus.writeBuffer(devid, register, value);
+		}
+	}
+}
@@ -1,13 +1,22 @@
 package memory;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
 
 import util.Const;
 /**
- * Cache — 16-line fully associative unified cache.
+ * Cache — 16-line (by default) fully associative unified cache.
  * Uses FIFO replacement policy via a LinkedList.
  * addFirst() inserts new entries at front.
- * removeLast() evicts the oldest entry when full.
+ * removeLast() evicts the oldest entry when full.<br/>
+ * Every line also has a slot: a new line takes the slot of the line it
+ * evicts, so it keeps one slot for its whole life. The tag and data of each
+ * slot are mirrored in plain arrays, which a view on another thread may
+ * read while the cache is in use, and every changed slot is marked until
+ * the view drains the marks; one insertion changes one slot.
  */
 public class Test {
 	/**
@@ -17,6 +26,7 @@ public class Test {
 
 		int tag;
 		int data;
+		int slot = -1;
 
 		public CacheLine(int tag, int data) {
 			this.tag = tag;
@@ -29,6 +39,10 @@ public class Test {
 
 		public void setTag(int tag) {
 			this.tag = tag;
+			if (this.slot >= 0) {
+				slotTags[this.slot] = tag;
+				markSlot(this.slot);
+			}
 		}
 
 		public int getData() {
@@ -37,13 +51,125 @@ public class Test {
 
 		public void setData(int data) {
 			this.data = data;
+			if (this.slot >= 0) {
+				slotData[this.slot] = data;
+				markSlot(this.slot);
+			}
+		}
+
+		public int getSlot() {
+			return slot;
 		}
 	}
 
 	LinkedList<CacheLine> cacheLines;
 
+	/**
+	 * maximum number of lines, Const.CACHE_LINES unless configured
+	 */
+	int capacity;
+
+	/**
+	 * tag and data of the line in each slot, EMPTY_SLOT tag if none
+	 */
+	int[] slotTags;
+	int[] slotData;
+
+	/**
+	 * one bit per slot changed since the last drainChangedSlots()
+	 */
+	AtomicLongArray changedSlots;
+
+	public static final int EMPTY_SLOT = -1;
+
 	public Test() {
+		this(Const.CACHE_LINES);
+	}
+
+	public Test(int capacity) {
 		this.cacheLines = new LinkedList<CacheLine>();
+		this.capacity = capacity;
+		this.slotTags = new int[capacity];
+		this.slotData = new int[capacity];
+		Arrays.fill(this.slotTags, EMPTY_SLOT);
+		this.changedSlots = new AtomicLongArray((capacity + 63) / 64);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Copy this cache into a new cache with the given number of lines. The
+	 * newest lines are kept when the new cache is smaller.
+	 */
+	public Test copy(int capacity) {
+		Test copy = new Test(capacity);
+		for (CacheLine line : this.cacheLines) {
+			if (copy.cacheLines.size() >= capacity) {
+				break;
+			}
+			CacheLine copied = copy.new CacheLine(line.getTag(), line.getData());
+			copy.cacheLines.addLast(copied);
+			copy.link(copied, copy.cacheLines.size() - 1);
+		}
+		return copy;
+	}
+
+	/**
+	 * @return tag of the line in the slot, EMPTY_SLOT if there is none
+	 */
+	public int getSlotTag(int slot) {
+		return slotTags[slot];
+	}
+
+	public int getSlotData(int slot) {
+		return slotData[slot];
+	}
+
+	/**
+	 * Move the marks of the slots changed since the last call into changed
+	 * (bit n for slot n) and clear them.
+	 */
+	public void drainChangedSlots(BitSet changed) {
+		for (int i = 0; i < changedSlots.length(); i++) {
+			if (changedSlots.get(i) == 0) {
+				continue;
+			}
+			long bits = changedSlots.getAndSet(i, 0);
+			while (bits != 0) {
+				changed.set(i * 64 + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	/**
+	 * Drop every line whose tag the predicate accepts, freeing its slot.
+	 */
+	public void removeIf(IntPredicate tag) {
+		cacheLines.removeIf(line -> {
+			if (!tag.test(line.tag)) {
+				return false;
+			}
+			slotTags[line.slot] = EMPTY_SLOT;
+			markSlot(line.slot);
+			return true;
+		});
+	}
+
+	private void link(CacheLine line, int slot) {
+		line.slot = slot;
+		slotTags[slot] = line.tag;
+		slotData[slot] = line.data;
+		markSlot(slot);
+	}
+
+	private void markSlot(int slot) {
+		long bit = 1L << slot;
+		if ((changedSlots.get(slot >>> 6) & bit) == 0) {
+			changedSlots.getAndAccumulate(slot >>> 6, bit, (a, b) -> a | b);
+		}
 	}
 
 	public LinkedList<CacheLine> getCacheLines() {
@@ -56,10 +182,19 @@ public class Test {
      */
 
 	public void add(int address, int value) {
-		if (this.cacheLines.size() >= Const.CACHE_LINES) {
-			this.cacheLines.removeLast();
+		int slot;
+		if (this.cacheLines.size() >= this.capacity) {
+			slot = this.cacheLines.removeLast().slot;
+		} else {
+			// a free slot; the lines fill slots in order unless some were removed
+			slot = this.cacheLines.size();
+			while (this.slotTags[slot] != EMPTY_SLOT) {
+				slot = (slot + 1) % this.capacity;
+			}
 		}
-		this.cacheLines.addFirst(new CacheLine(address, value));
+		CacheLine line = new CacheLine(address, value);
+		this.cacheLines.addFirst(line);
+		link(line, slot);
 	}
 
 }
@@ -0,0 +1,84 @@
+package memory;
+
+import java.util.Arrays;
+
+import util.Const;
+
+/**
+ * Resolved TRAP targets.<br/>
+ * Location 0 holds the address of the trap table, and entry n of the table
+ * holds the address of routine n. Following that chain through the cache
+ * on every TRAP costs two lookups, so the resolved targets are kept here
+ * and only re-read after location 0 or a table entry has been written.
+ */
+public class TrapVectorCache implements MemoryWriteListener {
+
+	private static final int UNRESOLVED = -1;
+
+	private final MCU mcu;
+
+	/**
+	 * address of the trap table, UNRESOLVED until it is read
+	 */
+	private int tableBase = UNRESOLVED;
+
+	/**
+	 * resolved routine address of each trap code, UNRESOLVED until it is
+	 * read
+	 */
+	private final int[] targets = new int[Const.TRAP_TABLE_SIZE];
+
+	public TrapVectorCache(MCU mcu) {
+		this.mcu = mcu;
+		Arrays.fill(this.targets, UNRESOLVED);
+	}
+
+	/**
+	 *
+	 * Look up the routine for a trap code.
+	 *
+	 * @param trapCode
+	 *            0 .. Const.TRAP_TABLE_SIZE - 1
+	 * @return routine address, or -1 if the trap code is illegal or the
+	 *         table lies outside the installed memory
+	 */
+	public int resolve(int trapCode) {
+		if (trapCode < 0 || trapCode >= Const.TRAP_TABLE_SIZE) {
+			return -1;
+		}
+		int target = this.targets[trapCode];
+		if (target != UNRESOLVED) {
+			return target;
+		}
+		if (this.tableBase == UNRESOLVED) {
+			this.tableBase = this.mcu.fetchFromMemory(Const.TRAP_TABLE_LOCATION);
+		}
+		int entry = this.tableBase + trapCode;
+		if (entry < 0 || entry >= this.mcu.getCurrentMemorySize()) {
+			return -1;
+		}
+		target = this.mcu.fetchFromMemory(entry);
+		this.targets[trapCode] = target;
+		return target;
+	}
+
+	/**
+	 * forget everything, e.g. after memory was replaced wholesale
+	 */
+	public void invalidate() {
+		this.tableBase = UNRESOLVED;
+		Arrays.fill(this.targets, UNRESOLVED);
+	}
+
+	@Override
+	public void onWrite(int address, int oldValue, int newValue) {
+		if (address == Const.TRAP_TABLE_LOCATION) {
+			invalidate();
+			return;
+		}
+		int index = address - this.tableBase;
+		if (this.tableBase != UNRESOLVED && index >= 0 && index < Const.TRAP_TABLE_SIZE) {
+			this.targets[index] = UNRESOLVED;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import util.Const;
+
+/**
+ * Memory read and write watchpoints, one bit per word. The MCU tests the
+ * bit of every data access with a single load and mask, so having no
+ * watchpoints costs that test and nothing else.<br/>
+ * A watched access is remembered as the hit (the first one since
+ * clearHit()); the CPU looks at it after the instruction and stops the
+ * run. Set and clear watchpoints on the thread that runs the CPU.
+ */
+public class Watchpoints {
+
+	public static final int NO_HIT = -1;
+
+	private static final int WORDS = Const.MEMORY_WORDS_BOUND_EXPANDED / 64;
+
+	// tested by the MCU
+	final long[] read = new long[WORDS];
+	final long[] write = new long[WORDS];
+
+	private int hitAddress = NO_HIT;
+	private boolean hitWrite;
+	private int hitValue;
+
+	public void setRead(int address, boolean watched) {
+		set(read, address, watched);
+	}
+
+	public void setWrite(int address, boolean watched) {
+		set(write, address, watched);
+	}
+
+	public boolean isRead(int address) {
+		return (read[address >>> 6] & (1L << address)) != 0;
+	}
+
+	public boolean isWrite(int address) {
+		return (write[address >>> 6] & (1L << address)) != 0;
+	}
+
+	/**
+	 * @return the watched addresses in ascending order, each with "r", "w"
+	 *         or "rw", e.g. "000100 rw"
+	 */
+	public List<String> describe() {
+		List<String> watched = new ArrayList<>();
+		for (int address = 0; address < WORDS * 64; address++) {
+			if (isRead(address) || isWrite(address)) {
+				watched.add(String.format("%06o %s%s", address, isRead(address) ? "r" : "",
+						isWrite(address) ? "w" : ""));
+			}
+		}
+		return watched;
+	}
+
+	public void clear() {
+		for (int i = 0; i < WORDS; i++) {
+			read[i] = 0;
+			write[i] = 0;
+		}
+		clearHit();
+	}
+
+	/**
+	 * @return address of the first watched access since clearHit(), or
+	 *         NO_HIT
+	 */
+	public int getHitAddress() {
+		return hitAddress;
+	}
+
+	public boolean isHitWrite() {
+		return hitWrite;
+	}
+
+	/**
+	 * @return the word read, or written, by the watched access
+	 */
+	public int getHitValue() {
+		return hitValue;
+	}
+
+	public void clearHit() {
+		hitAddress = NO_HIT;
+	}
+
+	void hit(int address, boolean isWrite, int value) {
+		if (hitAddress == NO_HIT) {
+			hitAddress = address;
+			hitWrite = isWrite;
+			hitValue = value;
+		}
+	}
+
+	private static void set(long[] bits, int address, boolean watched) {
+		if (address < 0 || address >= WORDS * 64) {
+			throw new IllegalArgumentException("Address " + address + " out of range");
+		}
+		if (watched) {
+			bits[address >>> 6] |= 1L << address;
+		} else {
+			bits[address >>> 6] &= ~(1L << address);
+		}
+	}
+}
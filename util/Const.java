@@ -7,6 +7,57 @@ public class Const {
 	public static final Integer MEMORY_WORDS_BOUND = 2048;
 	public static final Integer MEMORY_WORDS_BOUND_EXPANDED = 4096;
 	public static final Integer CACHE_LINES = 16;
+	/**
+	 * memory is stored in pages of 2^MEMORY_PAGE_SHIFT words so forked
+	 * machines can share pages copy-on-write
+	 */
+	public static final int MEMORY_PAGE_SHIFT = 8;
+	public static final int MEMORY_PAGE_WORDS = 1 << MEMORY_PAGE_SHIFT;
+	/**
+	 * result of executing one instruction
+	 */
+	public static final int STATUS_OK = 0;
+	public static final int STATUS_HALT = 1;
+	/**
+	 * IN found no input; PC is unchanged so the IN runs again
+	 */
+	public static final int STATUS_STALL = 2;
+	/**
+	 * machine fault, MFR holds the fault code
+	 */
+	public static final int STATUS_FAULT = 3;
+	/**
+	 * the program waits for an interrupt: a JMA to itself with interrupts
+	 * enabled
+	 */
+	public static final int STATUS_IDLE = 4;
+	/**
+	 * the instruction completed and the run should stop: a watched word was
+	 * accessed or the next PC has a breakpoint
+	 */
+	public static final int STATUS_BREAK = 5;
+	/**
+	 * fault handler address, and where PC and MSR are saved on a fault
+	 */
+	public static final int FAULT_HANDLER_LOCATION = 1;
+	public static final int FAULT_PC_LOCATION = 4;
+	public static final int FAULT_MSR_LOCATION = 5;
+	/**
+	 * location 0 holds the address of the trap table of TRAP_TABLE_SIZE
+	 * routine addresses; TRAP saves PC + 1 in TRAP_PC_LOCATION
+	 */
+	public static final int TRAP_TABLE_LOCATION = 0;
+	public static final int TRAP_PC_LOCATION = 2;
+	public static final int TRAP_TABLE_SIZE = 16;
+	/**
+	 * MSR bit that lets the CPU take interrupts; on an interrupt PC is saved
+	 * in location 3, MSR in location 6, and the handler address is read
+	 * from location 7
+	 */
+	public static final int MSR_INTERRUPT_ENABLE = 0x8000;
+	public static final int INTERRUPT_PC_LOCATION = 3;
+	public static final int INTERRUPT_MSR_LOCATION = 6;
+	public static final int INTERRUPT_HANDLER_LOCATION = 7;
 	public static final Integer BOOT_PROG_BASE = 8;
 	public static final Integer PG_10BASE = 500;
 	public static final Integer PG_10END = 871;
@@ -958,81 +1009,97 @@ static {
 		TB.put("1517", 0x1901);// AIR 1, 1 = 0001100100000001
 		TB.put("1518", 0x1a01);// AIR 2, 1 = 0001101000000001
 		TB.put("1519", 0x1b01);// AIR 3, 1 = 0001101100000001
+		TB.put("1520", 0x2c22);// JMA 0, 2, I: return to the PC saved in location 2
 		// routine 2
 		TB.put("1521", 0x1802);
 		TB.put("1522", 0x1902);
 		TB.put("1523", 0x1a02);
 		TB.put("1524", 0x1b02);
+		TB.put("1525", 0x2c22);
 		// routine 3
 		TB.put("1526", 0x1803);
 		TB.put("1527", 0x1903);
 		TB.put("1528", 0x1a03);
 		TB.put("1529", 0x1b03);
+		TB.put("1530", 0x2c22);
 		// routine 4
 		TB.put("1531", 0x1804);
 		TB.put("1532", 0x1904);
 		TB.put("1533", 0x1a04);
 		TB.put("1534", 0x1b04);
+		TB.put("1535", 0x2c22);
 		// routine 5
 		TB.put("1536", 0x1805);
 		TB.put("1537", 0x1905);
 		TB.put("1538", 0x1a05);
 		TB.put("1539", 0x1b05);
+		TB.put("1540", 0x2c22);
 		// routine 6
 		TB.put("1541", 0x1806);
 		TB.put("1542", 0x1906);
 		TB.put("1543", 0x1a06);
 		TB.put("1544", 0x1b06);
+		TB.put("1545", 0x2c22);
 		// routine 7
 		TB.put("1546", 0x1807);
 		TB.put("1547", 0x1907);
 		TB.put("1548", 0x1a07);
 		TB.put("1549", 0x1b07);
+		TB.put("1550", 0x2c22);
 		// routine 8
 		TB.put("1551", 0x1808);
 		TB.put("1552", 0x1908);
 		TB.put("1553", 0x1a08);
 		TB.put("1554", 0x1b08);
+		TB.put("1555", 0x2c22);
 		// routine 9
 		TB.put("1556", 0x1809);
 		TB.put("1557", 0x1909);
 		TB.put("1558", 0x1a09);
 		TB.put("1559", 0x1b09);
+		TB.put("1560", 0x2c22);
 		// routine 10
 		TB.put("1561", 0x180a);
 		TB.put("1562", 0x190a);
 		TB.put("1563", 0x1a0a);
 		TB.put("1564", 0x1b0a);
+		TB.put("1565", 0x2c22);
 		// routine 11
 		TB.put("1566", 0x180b);
 		TB.put("1567", 0x190b);
 		TB.put("1568", 0x1a0b);
 		TB.put("1569", 0x1b0b);
+		TB.put("1570", 0x2c22);
 		// routine 12
 		TB.put("1571", 0x180c);
 		TB.put("1572", 0x190c);
 		TB.put("1573", 0x1a0c);
 		TB.put("1574", 0x1b0c);
+		TB.put("1575", 0x2c22);
 		// routine 13
 		TB.put("1576", 0x180d);
 		TB.put("1577", 0x190d);
 		TB.put("1578", 0x1a0d);
 		TB.put("1579", 0x1b0d);
+		TB.put("1580", 0x2c22);
 		// routine 14
 		TB.put("1581", 0x180e);
 		TB.put("1582", 0x190e);
 		TB.put("1583", 0x1a0e);
 		TB.put("1584", 0x1b0e);
+		TB.put("1585", 0x2c22);
 		// routine 15
 		TB.put("1586", 0x180f);
 		TB.put("1587", 0x190f);
 		TB.put("1588", 0x1a0f);
 		TB.put("1589", 0x1b0f);
+		TB.put("1590", 0x2c22);
 		// routine 16
 		TB.put("1591", 0x1810);
 		TB.put("1592", 0x1910);
 		TB.put("1593", 0x1a10);
 		TB.put("1594", 0x1b10);
+		TB.put("1595", 0x2c22);
 
 	}
 
@@ -1085,7 +1152,7 @@ static {
 	}
 
 	public enum DevId {
-		KEYBOARD(0), PRINTER(1), CARD(2);
+		KEYBOARD(0), PRINTER(1), CARD(2), DMA(3), DISK(4), DISK_DATA(5), TIMER(6), INTC(7);
 		int value;
 
 		DevId(int value) {
@@ -0,0 +1,121 @@
+package util;
+
+/**
+ * Turns instruction words back into assembler text, using the opcodes the
+ * CPU decodes (not the legacy Const.OPCODE table).<br/>
+ * Operands are written the way the assembler reads them:<br/>
+ * LDR r,x,address[,1] - load/store/arithmetic with memory, JZ, JNE, SOB,
+ * JGE<br/>
+ * LDX x,address[,1] - LDX, STX, JMA, JSR<br/>
+ * JCC cc,x,address[,1]<br/>
+ * AIR r,immed - AIR, SIR; RFS immed; TRAP code<br/>
+ * MLT rx,ry - MLT, DVD, TRR, AND, ORR; NOT rx<br/>
+ * SRC r,count,L/R,A/L - SRC, RRC<br/>
+ * IN r,devid - IN, OUT, CHK<br/>
+ * A word that is not an instruction is shown as DATA and its octal value.
+ */
+public class Disassembler {
+
+	private static final int FORMAT_NONE = 0;
+	private static final int FORMAT_MEMORY = 1;
+	private static final int FORMAT_INDEX = 2;
+	private static final int FORMAT_IMMEDIATE = 3;
+	private static final int FORMAT_REGISTER_IMMEDIATE = 4;
+	private static final int FORMAT_REGISTERS = 5;
+	private static final int FORMAT_REGISTER = 6;
+	private static final int FORMAT_SHIFT = 7;
+	private static final int FORMAT_IO = 8;
+
+	private static final String[] MNEMONICS = new String[64];
+	private static final int[] FORMATS = new int[64];
+
+	static {
+		define(0, "HLT", FORMAT_NONE);
+		define(1, "LDR", FORMAT_MEMORY);
+		define(2, "STR", FORMAT_MEMORY);
+		define(3, "LDA", FORMAT_MEMORY);
+		define(4, "AMR", FORMAT_MEMORY);
+		define(5, "SMR", FORMAT_MEMORY);
+		define(6, "AIR", FORMAT_REGISTER_IMMEDIATE);
+		define(7, "SIR", FORMAT_REGISTER_IMMEDIATE);
+		define(8, "JZ", FORMAT_MEMORY);
+		define(9, "JNE", FORMAT_MEMORY);
+		define(10, "JCC", FORMAT_MEMORY);
+		define(11, "JMA", FORMAT_INDEX);
+		define(12, "JSR", FORMAT_INDEX);
+		define(13, "RFS", FORMAT_IMMEDIATE);
+		define(14, "SOB", FORMAT_MEMORY);
+		define(15, "JGE", FORMAT_MEMORY);
+		define(24, "TRAP", FORMAT_IMMEDIATE);
+		define(25, "SRC", FORMAT_SHIFT);
+		define(26, "RRC", FORMAT_SHIFT);
+		define(33, "LDX", FORMAT_INDEX);
+		define(34, "STX", FORMAT_INDEX);
+		define(49, "IN", FORMAT_IO);
+		define(50, "OUT", FORMAT_IO);
+		define(51, "CHK", FORMAT_IO);
+		define(56, "MLT", FORMAT_REGISTERS);
+		define(57, "DVD", FORMAT_REGISTERS);
+		define(58, "TRR", FORMAT_REGISTERS);
+		define(59, "AND", FORMAT_REGISTERS);
+		define(60, "ORR", FORMAT_REGISTERS);
+		define(61, "NOT", FORMAT_REGISTER);
+	}
+
+	private static void define(int opcode, String mnemonic, int format) {
+		MNEMONICS[opcode] = mnemonic;
+		FORMATS[opcode] = format;
+	}
+
+	/**
+	 * @return the mnemonic of the word's opcode, null if the CPU does not
+	 *         know it
+	 */
+	public static String mnemonic(int word) {
+		return MNEMONICS[(word >>> 10) & 0x3F];
+	}
+
+	/**
+	 *
+	 * Disassemble one word.
+	 *
+	 * @param word
+	 *            16 bit instruction
+	 * @return assembler text, e.g. "LDR 0,1,20" or "DATA 177777"
+	 */
+	public static String disassemble(int word) {
+		word &= 0xFFFF;
+		int opcode = word >>> 10;
+		String mnemonic = MNEMONICS[opcode];
+		if (mnemonic == null) {
+			return String.format("DATA %06o", word);
+		}
+		int r = (word >>> 8) & 0x3;
+		int ix = (word >>> 6) & 0x3;
+		int i = (word >>> 5) & 0x1;
+		int address = word & 0x1F;
+		String indirect = i == 1 ? ",1" : "";
+		switch (FORMATS[opcode]) {
+		case FORMAT_MEMORY:
+			return mnemonic + " " + r + "," + ix + "," + address + indirect;
+		case FORMAT_INDEX:
+			return mnemonic + " " + ix + "," + address + indirect;
+		case FORMAT_IMMEDIATE:
+			return mnemonic + " " + address;
+		case FORMAT_REGISTER_IMMEDIATE:
+			return mnemonic + " " + r + "," + address;
+		case FORMAT_REGISTERS:
+			return mnemonic + " " + r + "," + ix;
+		case FORMAT_REGISTER:
+			return mnemonic + " " + r;
+		case FORMAT_SHIFT:
+			// count in the low 4 bits, L/R in bit 6, A/L in bit 7
+			return mnemonic + " " + r + "," + (word & 0xF) + "," + ((word >>> 6) & 0x1) + ","
+					+ ((word >>> 7) & 0x1);
+		case FORMAT_IO:
+			return mnemonic + " " + r + "," + address;
+		default:
+			return word == 0 ? mnemonic : String.format("%s %06o", mnemonic, word);
+		}
+	}
+}
@@ -4,6 +4,12 @@ import memory.MCU;
 
 public class EffectiveAddress {
 
+	/**
+	 * returned by calculateEA when the address is illegal; MFR holds the
+	 * fault code
+	 */
+	public static final int FAULT = -1;
+
 	// calculating the effective address
 	public static int EA(String instruction, memory.MCU mcu, cpu.Registers registers) {
 
@@ -36,55 +42,44 @@ public class EffectiveAddress {
 		return 0;
 	}
 
-	public static int calculateEA(int ix, int address, int i, MCU mcu, Registers registers)
-			throws MachineFaultException {
-		if (i == 0) {
-			// NO indirect addressing
-			if (ix == 0) {// NO indexing
-				if (checkMachineFault(address, mcu) == 1) {
-					return address;
-				}
-			} else {
-				if (checkMachineFault(address + registers.getXnByNum(ix), mcu) == 1) {
-					return address + registers.getXnByNum(ix);
-				}
-			}
-
-		} else if (i == 1) {
+	/**
+	 * calculate the effective address of a load/store/jump instruction.
+	 *
+	 * @return the effective address, or FAULT if it is beyond the installed
+	 *         memory (MFR is set to the fault code)
+	 */
+	public static int calculateEA(int ix, int address, int i, MCU mcu, Registers registers) {
+		int ea = ix == 0 ? address : address + registers.getXnByNum(ix);
+		if (!isValidAddress(ea, mcu, registers)) {
+			return FAULT;
+		}
+		if (i == 1) {
 			// indirect addressing
-			if (ix == 0) {// NO indexing
-				if (checkMachineFault(address, mcu) == 1) {
-					registers.setMAR(address);
-					registers.setMBR(mcu.fetchFromCache(registers.getMAR()));
-				}
-			} else {
-				if (checkMachineFault(address + registers.getXnByNum(ix), mcu) == 1) {
-					registers.setMAR(address + registers.getXnByNum(ix));
-					registers.setMBR(mcu.fetchFromCache(registers.getMAR()));
-				}
+			registers.setMAR(ea);
+			registers.setMBR(mcu.fetchFromCache(registers.getMAR()));
+			if (!isValidAddress(registers.getMBR(), mcu, registers)) {
+				return FAULT;
 			}
 			return registers.getMBR();
 		}
-		return 0;
+		return ea;
 	}
 
-	public static int checkMachineFault(int address, MCU mcu) throws MachineFaultException {
-		// in here we check if we have a machine fault or not
-
-		// first, we should check if it is a reserved location in memory or not
-		// if (address < 6) {
-		// 	throw new MachineFaultException(Const.FaultCode.ILL_MEM_RSV.getValue(),
-		// 			Const.FaultCode.ILL_MEM_RSV.getMessage());
-		// 	// now we should check if address is beyond the size of memory or
-		// 	// not
-		// } else
-		if (address > mcu.getCurrentMemorySize() - 1) {
-			throw new MachineFaultException(Const.FaultCode.ILL_MEM_BYD.getValue(),
-					Const.FaultCode.ILL_MEM_BYD.getMessage());
-			// if there is no machine fault we can safely return 1
-		} else {
-			return 1;
+	/**
+	 * in here we check if we have a machine fault or not, without throwing:
+	 * programs that probe the memory bounds should not pay for an exception.
+	 *
+	 * @return true if the address is inside the installed memory, otherwise
+	 *         false with MFR set to ILL_MEM_BYD
+	 */
+	public static boolean isValidAddress(int address, MCU mcu, Registers registers) {
+		// reserved locations (address < 6) are not checked, see the
+		// commented out ILL_MEM_RSV check this replaced
+		if (address < 0 || address > mcu.getCurrentMemorySize() - 1) {
+			registers.setMFR(Const.FaultCode.ILL_MEM_BYD.getValue());
+			return false;
 		}
+		return true;
 	}
 
-}
\ No newline at end of file
+}
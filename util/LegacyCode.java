@@ -0,0 +1,52 @@
+package util;
+
+/**
+ * Translates the hand-assembled programs in Const (PG1_20 and friends) to
+ * the opcodes the CPU decodes.<br/>
+ * Those words were written for the earlier opcode table with the octal
+ * opcode typed in as a decimal number: TRR, octal 22, is stored as decimal
+ * 22 (binary 010110). Reading the field's decimal digits as octal gives
+ * the earlier opcode back; it only differs from the current one for the
+ * register to register group, which moved from octal 20-25 to 70-75. The
+ * register, index, indirect and address fields are unchanged.
+ */
+public class LegacyCode {
+
+	/**
+	 *
+	 * Translate one instruction word.
+	 *
+	 * @param word
+	 *            16 bit word in the legacy encoding
+	 * @return the word with the CPU's opcode; words whose opcode field has
+	 *         an 8 or 9 in it are not legacy instructions and are returned
+	 *         unchanged
+	 */
+	public static int translate(int word) {
+		word &= 0xFFFF;
+		int opcode = legacyOpcode(word >>> 10);
+		if (opcode < 0) {
+			return word;
+		}
+		return (opcode << 10) | (word & 0x3FF);
+	}
+
+	/**
+	 * @return the CPU opcode for a legacy opcode field, -1 if the field is
+	 *         not one
+	 */
+	private static int legacyOpcode(int field) {
+		int opcode = 0;
+		for (char digit : Integer.toString(field).toCharArray()) {
+			if (digit > '7') {
+				return -1;
+			}
+			opcode = opcode * 8 + (digit - '0');
+		}
+		// MLT, DVD, TRR, AND, ORR, NOT
+		if (opcode >= 020 && opcode <= 025) {
+			opcode += 050;
+		}
+		return opcode;
+	}
+}
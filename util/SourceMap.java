@@ -0,0 +1,136 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Source line and label per address, read from the assembler's listing
+ * file (listing.txt) or a symbol file.<br/>
+ * Listing lines are "address word statement", both numbers octal, and a
+ * line "LABEL:" names the address of the next statement. A symbol file
+ * line is "LABEL address". LOC lines, blank lines and anything else are
+ * skipped, so a partly matching file gives a partial map.
+ */
+public class SourceMap {
+
+	private final Map<Integer, String> statements = new HashMap<>();
+	private final Map<Integer, String> labels = new HashMap<>();
+	private final Map<Integer, Integer> lines = new HashMap<>();
+	private final String name;
+
+	private SourceMap(String name) {
+		this.name = name;
+	}
+
+	/**
+	 *
+	 * Read a listing or symbol file.
+	 *
+	 * @param file
+	 * @return the map, empty if nothing in the file was understood
+	 * @throws IOException
+	 */
+	public static SourceMap load(Path file) throws IOException {
+		SourceMap map = new SourceMap(file.getFileName().toString());
+		try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+			String pendingLabel = null;
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith(";")) {
+					continue;
+				}
+				if (line.endsWith(":") && line.indexOf(' ') < 0) {
+					pendingLabel = line.substring(0, line.length() - 1);
+					continue;
+				}
+				String[] fields = line.split("\\s+", 3);
+				if (fields.length == 3 && isOctal(fields[0]) && isOctal(fields[1])) {
+					int address = Integer.parseInt(fields[0], 8);
+					map.statements.put(address, fields[2]);
+					map.lines.put(address, lineNumber);
+					if (pendingLabel != null) {
+						map.labels.put(address, pendingLabel);
+						pendingLabel = null;
+					}
+				} else if (fields.length == 2 && !isOctal(fields[0]) && isOctal(fields[1])
+						&& !fields[0].equalsIgnoreCase("LOC")) {
+					map.labels.put(Integer.parseInt(fields[1], 8), fields[0]);
+				}
+			}
+		}
+		return map;
+	}
+
+	private static boolean isOctal(String text) {
+		if (text.isEmpty() || text.length() > 6) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) < '0' || text.charAt(i) > '7') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the file the map was read from, without its directory
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public boolean isEmpty() {
+		return statements.isEmpty() && labels.isEmpty();
+	}
+
+	/**
+	 * @return the source statement assembled at address, or null
+	 */
+	public String getStatement(int address) {
+		return statements.get(address);
+	}
+
+	/**
+	 * @return the label of address, or null
+	 */
+	public String getLabel(int address) {
+		return labels.get(address);
+	}
+
+	/**
+	 * @return line of the statement in the file, 0 if unknown
+	 */
+	public int getLineNumber(int address) {
+		Integer line = lines.get(address);
+		return line == null ? 0 : line;
+	}
+
+	/**
+	 * @return e.g. "LOOP: LDR 0,1,0 (listing.txt:8)", or null if the
+	 *         address is not in the map
+	 */
+	public String describe(int address) {
+		String statement = getStatement(address);
+		String label = getLabel(address);
+		if (statement == null && label == null) {
+			return null;
+		}
+		StringBuilder text = new StringBuilder();
+		if (label != null) {
+			text.append(label).append(": ");
+		}
+		if (statement != null) {
+			text.append(statement).append(" (").append(name).append(':').append(getLineNumber(address)).append(')');
+		}
+		return text.toString().trim();
+	}
+}